@@ -0,0 +1,104 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import net.cnri.repository.DigitalObject;
+import net.cnri.repository.RepositoryException;
+import net.cnri.repository.memory.MemoryRepository;
+
+/**
+ * Shared fixtures for the benchmarks: the DataType schema from type-schemas and DataType records shaped like
+ * the ones in a populated registry, stored in an in-memory repository.
+ */
+public class BenchmarkData {
+    public static final String PREFIX = "20.5000.bench";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    public static JsonNode dataTypeSchema() throws IOException {
+        InputStream in = BenchmarkData.class.getResourceAsStream("/DataType.json");
+        if (in == null) throw new IOException("DataType.json not on the benchmark classpath");
+        try {
+            return mapper.readTree(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    public static String handle(int n) {
+        return PREFIX + "/type-" + n;
+    }
+
+    /**
+     * A DataType record with the given number of properties, each referencing another DataType.
+     */
+    public static ObjectNode dataTypeInstance(int n, int numProperties) {
+        JsonNodeFactory f = JsonNodeFactory.instance;
+        ObjectNode result = f.objectNode();
+        result.put("identifier", handle(n));
+        result.put("name", "Type " + n);
+        result.put("description", "A benchmark data type with " + numProperties + " properties, used to measure validation, indexing and serialization.");
+        ArrayNode standards = result.putArray("standards");
+        ObjectNode standard = standards.addObject();
+        standard.put("issuer", "ISO");
+        standard.put("name", "ISO 8601");
+        standard.put("details", "Dates and times");
+        standard.put("natureOfApplicability", "constrains");
+        ObjectNode provenance = result.putObject("provenance");
+        ArrayNode contributors = provenance.putArray("contributors");
+        ObjectNode contributor = contributors.addObject();
+        contributor.put("identifiedUsing", "ORCID");
+        contributor.put("name", "0000-0002-1825-0097");
+        provenance.put("creationDate", "2016-01-01T00:00:00Z");
+        provenance.put("lastModificationDate", "2016-06-01T00:00:00Z");
+        result.putArray("expectedUses").add("benchmarking").add("testing");
+        ArrayNode representations = result.putArray("representationsAndSemantics");
+        ObjectNode representation = representations.addObject();
+        representation.put("expression", "Format");
+        representation.put("value", "text/plain");
+        ArrayNode properties = result.putArray("properties");
+        for (int i = 0; i < numProperties; i++) {
+            ObjectNode property = properties.addObject();
+            property.put("name", "property" + i);
+            property.put("description", "Property " + i + " of type " + n);
+            property.put("identifier", handle(1000 + i));
+            ArrayNode propertyRepresentations = property.putArray("representationsAndSemantics");
+            ObjectNode propertyRepresentation = propertyRepresentations.addObject();
+            propertyRepresentation.put("expression", "Measurement Unit");
+            propertyRepresentation.put("value", "m");
+        }
+        ArrayNode relationships = result.putArray("relationships");
+        ObjectNode relationship = relationships.addObject();
+        relationship.put("name", "isPartOf");
+        relationship.putArray("relativeNames").add(handle(0));
+        return result;
+    }
+
+    /**
+     * Stores a DataType object in repo with the attributes the registrar writes on create.
+     */
+    public static DigitalObject storeDataType(MemoryRepository repo, int n, int numProperties) throws RepositoryException {
+        DigitalObject dobj = repo.createDigitalObject(handle(n));
+        dobj.setAttribute("type", "DataType");
+        dobj.setAttribute("json", dataTypeInstance(n, numProperties).toString());
+        dobj.setAttribute("internal.created", "1451606400000");
+        dobj.setAttribute("internal.modified", "1464739200000");
+        dobj.setAttribute("createdBy", "admin");
+        dobj.setAttribute("modifiedBy", "admin");
+        return dobj;
+    }
+}
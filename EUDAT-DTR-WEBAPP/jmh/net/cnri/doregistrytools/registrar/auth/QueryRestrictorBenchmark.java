@@ -0,0 +1,96 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.auth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.cnri.doregistrytools.registrar.BenchmarkData;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryRestrictorBenchmark {
+
+    @Param({"1", "50"})
+    public int numGroups;
+
+    @Param({"0", "10"})
+    public int numRemoteRepositories;
+
+    private String userId;
+    private List<String> groupIds;
+    private AuthConfig authConfig;
+    private Map<String, AuthConfig> remoteAuthConfigs;
+    private AclRestrictionCache restrictionCache;
+
+    @Setup
+    public void setup() {
+        userId = BenchmarkData.PREFIX + "/user";
+        groupIds = new ArrayList<String>();
+        for (int i = 0; i < numGroups; i++) {
+            groupIds.add(BenchmarkData.PREFIX + "/group-" + i);
+        }
+        authConfig = authConfig(groupIds.isEmpty() ? null : groupIds.get(0));
+        remoteAuthConfigs = new HashMap<String, AuthConfig>();
+        for (int i = 0; i < numRemoteRepositories; i++) {
+            remoteAuthConfigs.put("remote-" + i, authConfig(null));
+        }
+        restrictionCache = new AclRestrictionCache();
+        restrictionCache.setAuthConfig(authConfig);
+        restrictionCache.setRemoteAuthConfigs(remoteAuthConfigs);
+    }
+
+    private static AuthConfig authConfig(String groupId) {
+        AuthConfig result = AuthConfigFactory.getDefaultAuthConfig();
+        String[] types = { "DataType", "Property", "Standard", "Vocabulary" };
+        for (String type : types) {
+            DefaultAcls acls = new DefaultAcls();
+            acls.defaultAclRead = new ArrayList<String>(Arrays.asList("creator"));
+            if (groupId != null) acls.defaultAclRead.add(groupId);
+            acls.defaultAclWrite = new ArrayList<String>(Arrays.asList("creator"));
+            acls.aclCreate = new ArrayList<String>(Arrays.asList("authenticated"));
+            result.schemaAcls.put(type, acls);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public String restrict() {
+        return QueryRestrictor.restrict("type:DataType AND name:temperature", userId, groupIds, authConfig, remoteAuthConfigs, true);
+    }
+
+    @Benchmark
+    public String restrictCached() {
+        return restrictionCache.restrict("type:DataType AND name:temperature", userId, groupIds, true);
+    }
+
+    @Benchmark
+    public String restrictAnonymous() {
+        return QueryRestrictor.restrict("type:DataType AND name:temperature", null, null, authConfig, remoteAuthConfigs, true);
+    }
+}
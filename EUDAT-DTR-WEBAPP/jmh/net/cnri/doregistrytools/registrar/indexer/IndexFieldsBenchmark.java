@@ -0,0 +1,55 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.indexer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.document.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import net.cnri.doregistrytools.registrar.BenchmarkData;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexFieldsBenchmark {
+
+    @Param({"1", "20"})
+    public int numProperties;
+
+    private JsonSchemaIndexBuilder indexBuilder;
+    private JsonNode instance;
+
+    @Setup
+    public void setup() {
+        indexBuilder = new JsonSchemaIndexBuilder();
+        instance = BenchmarkData.dataTypeInstance(1, numProperties);
+    }
+
+    @Benchmark
+    public Document addFieldsForJson() {
+        Document doc = new Document();
+        indexBuilder.addFieldsForJson(doc, instance);
+        return doc;
+    }
+}
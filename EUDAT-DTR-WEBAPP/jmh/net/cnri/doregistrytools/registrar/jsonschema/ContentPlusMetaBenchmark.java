@@ -0,0 +1,68 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import net.cnri.doregistrytools.registrar.BenchmarkData;
+import net.cnri.repository.DigitalObject;
+import net.cnri.repository.RepositoryException;
+import net.cnri.repository.memory.MemoryRepository;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentPlusMetaBenchmark {
+
+    @Param({"1", "20"})
+    public int numProperties;
+
+    private DigitalObject dobj;
+
+    @Setup
+    public void setup() throws Exception {
+        dobj = BenchmarkData.storeDataType(new MemoryRepository(), 1, numProperties);
+    }
+
+    @Benchmark
+    public String write() throws RepositoryException, IOException {
+        return write(false);
+    }
+
+    @Benchmark
+    public String writeCompact() throws RepositoryException, IOException {
+        return write(true);
+    }
+
+    private String write(boolean compact) throws RepositoryException, IOException {
+        StringWriter writer = new StringWriter();
+        JsonGenerator generator = ContentPlusMetaWriter.createGenerator(writer, compact);
+        ContentPlusMetaWriter.write(generator, dobj);
+        generator.close();
+        return writer.toString();
+    }
+}
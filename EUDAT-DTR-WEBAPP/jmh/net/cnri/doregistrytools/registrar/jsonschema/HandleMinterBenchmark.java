@@ -0,0 +1,51 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.cnri.doregistrytools.registrar.BenchmarkData;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandleMinterBenchmark {
+
+    private HandleMinter handleMinter;
+    private String data;
+
+    @Setup
+    public void setup() {
+        handleMinter = new HandleMinter(BenchmarkData.PREFIX);
+        data = BenchmarkData.dataTypeInstance(1, 20).toString();
+    }
+
+    @Benchmark
+    public String mint() {
+        return handleMinter.mint(data);
+    }
+
+    @Benchmark
+    public String mintByTimestamp() {
+        return handleMinter.mintByTimestamp();
+    }
+}
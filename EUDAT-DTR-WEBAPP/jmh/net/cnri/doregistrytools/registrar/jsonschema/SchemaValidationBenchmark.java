@@ -0,0 +1,64 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import net.cnri.doregistrytools.registrar.BenchmarkData;
+import net.cnri.repository.memory.MemoryRepository;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SchemaValidationBenchmark {
+
+    @Param({"1", "20"})
+    public int numProperties;
+
+    private DigitalObjectSchemaValidator validator;
+    private SchemaAndNode compiledSchema;
+    private SchemaAndNode recordingSchema;
+    private JsonNode instance;
+
+    @Setup
+    public void setup() throws Exception {
+        validator = new DigitalObjectSchemaValidator(new MemoryRepository());
+        JsonNode schemaNode = BenchmarkData.dataTypeSchema();
+        compiledSchema = SchemaAndNode.compile(schemaNode);
+        recordingSchema = new SchemaAndNode(JsonUtil.parseJsonSchema(schemaNode), schemaNode);
+        instance = BenchmarkData.dataTypeInstance(1, numProperties);
+    }
+
+    @Benchmark
+    public Map<String, JsonNode> keywordPlan() throws InvalidException {
+        return validator.schemaValidateAndReturnKeywordsMap(instance, compiledSchema);
+    }
+
+    @Benchmark
+    public Map<String, JsonNode> recordingValidator() throws InvalidException {
+        return validator.schemaValidateAndReturnKeywordsMap(instance, recordingSchema);
+    }
+}
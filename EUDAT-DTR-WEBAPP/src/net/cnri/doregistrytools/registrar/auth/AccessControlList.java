@@ -109,29 +109,34 @@ public class AccessControlList {
         String aclString = null;
         String handle = null;
         String creator = null;
+        String objectType = null;
         if (dobj != null) {
             aclString = dobj.getAttribute(permission);
             handle = dobj.getHandle();
             creator = dobj.getAttribute(CREATED_BY_ATTRIBUTE);
+            if (aclString == null && authConfig != null) objectType = dobj.getAttribute("type");
         }
+        return isPermitted(aclString, handle, creator, objectType, authConfig, userId, permission);
+    }
+    
+    /**
+     * As {@link #canRead(String)} or {@link #canWrite(String)}, by permission, for an object known only by its
+     * attributes.  A null objectType means the default ACLs of authConfig apply if the object has no ACL.
+     */
+    public static boolean isPermitted(String aclString, String objectId, String creator, String objectType, AuthConfig authConfig, String userId, String permission) {
         if (aclString == null && authConfig != null) {
-            DefaultAcls defaultAcls;
-            if (dobj == null) {
+            DefaultAcls defaultAcls = null;
+            if (objectType != null) defaultAcls = authConfig.schemaAcls.get(objectType);
+            if (defaultAcls == null) {
                 defaultAcls = authConfig.defaultAcls;
-            } else {
-                String objectType = dobj.getAttribute("type");
-                defaultAcls = authConfig.schemaAcls.get(objectType);
-                if (defaultAcls == null) {
-                    defaultAcls = authConfig.defaultAcls;
-                }
             }
-            return isPermittedByDefaultAcls(defaultAcls, handle, creator, userId, permission);
+            return isPermittedByDefaultAcls(defaultAcls, objectId, creator, userId, permission);
         }
         if (aclString == null) {
             aclString = "";
         }
         String[] ids = aclString.split("\n");
-        return isPermittedByAcl(Arrays.asList(ids), handle, creator, userId);
+        return isPermittedByAcl(Arrays.asList(ids), objectId, creator, userId);
     }
     
     private static boolean isPermittedByDefaultAcls(DefaultAcls defaultAcls, String objectId, String creatorId, String userId, String permission) {
@@ -11,19 +11,19 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
+import net.cnri.doregistrytools.registrar.jsonschema.CacheStatistics;
 import net.cnri.doregistrytools.registrar.jsonschema.RegistrarService;
 import net.cnri.repository.DigitalObject;
 import net.cnri.repository.Repository;
 import net.cnri.repository.RepositoryException;
-import net.cnri.repository.search.Query;
-import net.cnri.repository.search.RawQuery;
-import net.cnri.repository.util.CollectionUtil;
 
 public class AclEnforcer {
 
     private Repository repo;
     private AuthConfig authConfig;
     private Map<String, AuthConfig> remoteAuthConfigs;
+    private final AclRestrictionCache restrictionCache = new AclRestrictionCache();
+    private final GroupMembershipIndex groupMembershipIndex;
     
     public enum Permission {
         NONE,
@@ -33,6 +33,7 @@ public class AclEnforcer {
     
     public AclEnforcer(Repository repo) {
         this.repo = repo;
+        this.groupMembershipIndex = new GroupMembershipIndex(repo);
     }
     
     public Permission permittedOperations(String userId, String objectId) throws RepositoryException {
@@ -70,6 +71,27 @@ public class AclEnforcer {
         return perm != Permission.NONE;
     }
     
+    /**
+     * As {@link #canRead(String, DigitalObject)} for an object known only by its attributes, for callers checking
+     * many objects held in memory; groupIds are those of {@link #getGroupsForUser(String)}.
+     */
+    public boolean canRead(String userId, List<String> groupIds, String objectId, String objectType, String remoteRepository, String aclRead, String aclWrite, String createdBy) {
+        AuthConfig objectAuthConfig = authConfig;
+        if (remoteRepository != null) {
+            objectAuthConfig = remoteAuthConfigs.get(remoteRepository);
+        }
+        if (canReadForUser(userId, objectAuthConfig, objectId, objectType, aclRead, aclWrite, createdBy)) return true;
+        for (String group : groupIds) {
+            if (canReadForUser(group, objectAuthConfig, objectId, objectType, aclRead, aclWrite, createdBy)) return true;
+        }
+        return false;
+    }
+    
+    private static boolean canReadForUser(String userId, AuthConfig objectAuthConfig, String objectId, String objectType, String aclRead, String aclWrite, String createdBy) {
+        return AccessControlList.isPermitted(aclWrite, objectId, createdBy, objectType, objectAuthConfig, userId, AccessControlList.ACL_WRITE)
+            || AccessControlList.isPermitted(aclRead, objectId, createdBy, objectType, objectAuthConfig, userId, AccessControlList.ACL_READ);
+    }
+    
     public static boolean doesPermissionAllowOperation(Permission permission, Permission requiredPermission) throws RepositoryException {
         if (requiredPermission == Permission.NONE) {
             return true;
@@ -84,10 +106,20 @@ public class AclEnforcer {
     
     public void setAuthConfig(AuthConfig authConfig) {
         this.authConfig = authConfig;
+        restrictionCache.setAuthConfig(authConfig);
     }
     
     public void setRemoteAuthConfigs(Map<String, AuthConfig> remoteAuthConfigs) {
         this.remoteAuthConfigs = remoteAuthConfigs;
+        restrictionCache.setRemoteAuthConfigs(remoteAuthConfigs);
+    }
+    
+    public String restrictQuery(String query, String userId, List<String> groupIds, boolean excludeVersions) {
+        return restrictionCache.restrict(query, userId, groupIds, excludeVersions);
+    }
+    
+    public CacheStatistics getRestrictionCacheStatistics() {
+        return restrictionCache.getStatistics();
     }
     
     private boolean isPermittedToCreateForUser(String userId, String objectType) {
@@ -112,7 +144,17 @@ public class AclEnforcer {
 
     public List<String> getGroupsForUser(String userId) throws RepositoryException {
         if (userId == null || "admin".equals(userId)) return Collections.emptyList();
-        Query query = new RawQuery("users:\"" + userId + "\"");
-        return CollectionUtil.asList(repo.searchHandles(query));
+        return groupMembershipIndex.getGroupsForUser(userId);
+    }
+    
+    /**
+     * Must be called whenever the "users" attribute of an object may have changed; null means the object no longer lists users.
+     */
+    public void updateGroupMembership(String objectId, String usersAttribute) {
+        groupMembershipIndex.setMembers(objectId, usersAttribute);
+    }
+    
+    public void removeGroupMembership(String objectId) {
+        groupMembershipIndex.removeGroup(objectId);
     }
 }
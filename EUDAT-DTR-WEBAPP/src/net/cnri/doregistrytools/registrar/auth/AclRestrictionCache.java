@@ -0,0 +1,120 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.auth;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import net.cnri.doregistrytools.registrar.jsonschema.CacheStatistics;
+
+/**
+ * Caches the ACL clause from {@link QueryRestrictor#aclRestriction} so that it is built once per user, group set
+ * and auth config instead of on every search.  Keys carry the versions of the auth configs they were built from,
+ * and changing either config drops every entry.
+ */
+public class AclRestrictionCache {
+    public static final long DEFAULT_MAXIMUM_SIZE = 1000;
+
+    private final long maximumSize;
+    private final Cache<Key, String> cache;
+    private volatile AuthConfigs authConfigs = new AuthConfigs(null, 0, null, 0);
+
+    public AclRestrictionCache() {
+        this(Long.getLong("dtr.aclRestrictionCache.size", DEFAULT_MAXIMUM_SIZE).longValue());
+    }
+
+    public AclRestrictionCache(long maximumSize) {
+        this.maximumSize = maximumSize;
+        this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    public synchronized void setAuthConfig(AuthConfig authConfig) {
+        AuthConfigs current = authConfigs;
+        authConfigs = new AuthConfigs(authConfig, current.authConfigVersion + 1, current.remoteAuthConfigs, current.remoteAuthConfigsVersion);
+        cache.invalidateAll();
+    }
+
+    public synchronized void setRemoteAuthConfigs(Map<String, AuthConfig> remoteAuthConfigs) {
+        AuthConfigs current = authConfigs;
+        authConfigs = new AuthConfigs(current.authConfig, current.authConfigVersion, remoteAuthConfigs, current.remoteAuthConfigsVersion + 1);
+        cache.invalidateAll();
+    }
+
+    public String restrict(String query, String userId, List<String> groupIds, boolean excludeVersions) {
+        return QueryRestrictor.restrictWith(query, getAclRestriction(userId, groupIds), excludeVersions);
+    }
+
+    public String getAclRestriction(String userId, List<String> groupIds) {
+        if ("admin".equals(userId)) return null;
+        AuthConfigs configs = authConfigs;
+        List<String> sortedGroupIds = groupIds == null ? Collections.<String>emptyList() : new ArrayList<String>(new TreeSet<String>(groupIds));
+        Key key = new Key(userId, sortedGroupIds, configs.authConfigVersion, configs.remoteAuthConfigsVersion);
+        String result = cache.getIfPresent(key);
+        if (result == null) {
+            result = QueryRestrictor.aclRestriction(userId, sortedGroupIds, configs.authConfig, configs.remoteAuthConfigs);
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    public CacheStatistics getStatistics() {
+        return CacheStatistics.of(cache, maximumSize);
+    }
+
+    private static class AuthConfigs {
+        final AuthConfig authConfig;
+        final long authConfigVersion;
+        final Map<String, AuthConfig> remoteAuthConfigs;
+        final long remoteAuthConfigsVersion;
+
+        AuthConfigs(AuthConfig authConfig, long authConfigVersion, Map<String, AuthConfig> remoteAuthConfigs, long remoteAuthConfigsVersion) {
+            this.authConfig = authConfig;
+            this.authConfigVersion = authConfigVersion;
+            this.remoteAuthConfigs = remoteAuthConfigs;
+            this.remoteAuthConfigsVersion = remoteAuthConfigsVersion;
+        }
+    }
+
+    private static class Key {
+        final String userId;
+        final List<String> groupIds;
+        final long authConfigVersion;
+        final long remoteAuthConfigsVersion;
+
+        Key(String userId, List<String> groupIds, long authConfigVersion, long remoteAuthConfigsVersion) {
+            this.userId = userId;
+            this.groupIds = groupIds;
+            this.authConfigVersion = authConfigVersion;
+            this.remoteAuthConfigsVersion = remoteAuthConfigsVersion;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = userId == null ? 0 : userId.hashCode();
+            result = 31 * result + groupIds.hashCode();
+            result = 31 * result + (int) (authConfigVersion ^ (authConfigVersion >>> 32));
+            result = 31 * result + (int) (remoteAuthConfigsVersion ^ (remoteAuthConfigsVersion >>> 32));
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            if (userId == null ? other.userId != null : !userId.equals(other.userId)) return false;
+            return groupIds.equals(other.groupIds) && authConfigVersion == other.authConfigVersion && remoteAuthConfigsVersion == other.remoteAuthConfigsVersion;
+        }
+    }
+}
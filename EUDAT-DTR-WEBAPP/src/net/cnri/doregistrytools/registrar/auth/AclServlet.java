@@ -22,6 +22,7 @@ import com.google.gson.Gson;
 import net.cnri.doregistrytools.registrar.jsonschema.RegistrarService;
 import net.cnri.doregistrytools.registrar.jsonschema.RegistrarServiceFactory;
 import net.cnri.doregistrytools.registrar.jsonschema.ServletErrorUtil;
+import net.cnri.doregistrytools.registrar.jsonschema.ServletUtil;
 import net.cnri.repository.DigitalObject;
 import net.cnri.repository.NoSuchDigitalObjectException;
 import net.cnri.repository.RepositoryException;
@@ -82,6 +83,8 @@ public class AclServlet extends HttpServlet {
             AccessControlList acl = new AccessControlList(dobj);
             acl.replaceRead(sAcl.read);
             acl.replaceWrite(sAcl.write);
+            registrar.noteWrite();
+            ServletUtil.setIndexGenerationHeader(resp, registrar);
             gson.toJson(sAcl, resp.getWriter());
         } catch (NoSuchDigitalObjectException e) {
             ServletErrorUtil.notFound(resp, "No such object " + objectId);
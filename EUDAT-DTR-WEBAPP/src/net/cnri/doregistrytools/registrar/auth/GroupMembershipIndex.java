@@ -0,0 +1,149 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.auth;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.cnri.repository.DigitalObject;
+import net.cnri.repository.Repository;
+import net.cnri.repository.RepositoryException;
+import net.cnri.repository.search.QueryResults;
+import net.cnri.repository.search.RawQuery;
+
+/**
+ * The groups of each user, with the inverse map from each group to its members.  It is loaded from the index
+ * on first use and afterwards kept current by the write path through {@link #setMembers}, so that a group edit
+ * is visible to the next request without waiting for the index.  Groups are objects with a "users" attribute,
+ * as written by UsersListProcessor.
+ */
+public class GroupMembershipIndex {
+    private static Logger logger = LoggerFactory.getLogger(GroupMembershipIndex.class);
+
+    static final String GROUPS_QUERY = "users:[* TO *]";
+
+    private final Repository repo;
+    // values are unmodifiable and replaced on change, so lookups need no lock
+    private final Map<String, List<String>> groupsByUser = new ConcurrentHashMap<String, List<String>>();
+    private final Map<String, Set<String>> usersByGroup = new HashMap<String, Set<String>>();
+    private final Set<String> changedBeforeLoad = new HashSet<String>();
+    private volatile boolean loaded = false;
+
+    public GroupMembershipIndex(Repository repo) {
+        this.repo = repo;
+    }
+
+    public List<String> getGroupsForUser(String userId) throws RepositoryException {
+        if (!loaded) {
+            try {
+                load();
+            } catch (RepositoryException e) {
+                logger.error("Error loading group memberships, searching for groups of " + userId, e);
+                return searchGroupsForUser(userId);
+            }
+        }
+        List<String> groups = groupsByUser.get(userId);
+        if (groups == null) return Collections.emptyList();
+        return groups;
+    }
+
+    private List<String> searchGroupsForUser(String userId) throws RepositoryException {
+        List<String> result = new ArrayList<String>();
+        QueryResults<String> iter = (QueryResults<String>) repo.searchHandles(new RawQuery("users:\"" + userId + "\""));
+        try {
+            while (iter.hasNext()) {
+                result.add(iter.next());
+            }
+        } finally {
+            iter.close();
+        }
+        return result;
+    }
+
+    private synchronized void load() throws RepositoryException {
+        if (loaded) return;
+        QueryResults<DigitalObject> iter = (QueryResults<DigitalObject>) repo.search(new RawQuery(GROUPS_QUERY));
+        try {
+            while (iter.hasNext()) {
+                DigitalObject group = iter.next();
+                String groupId = group.getHandle();
+                // the write path has already recorded a newer list than the index may show
+                if (changedBeforeLoad.contains(groupId)) continue;
+                putMembers(groupId, parseUsers(group.getAttribute("users")));
+            }
+        } finally {
+            iter.close();
+        }
+        changedBeforeLoad.clear();
+        loaded = true;
+        logger.info("Loaded group memberships: " + usersByGroup.size() + " groups, " + groupsByUser.size() + " users");
+    }
+
+    /**
+     * Records the members of a group from its "users" attribute; null removes the group.
+     */
+    public synchronized void setMembers(String groupId, String usersAttribute) {
+        if (!loaded) changedBeforeLoad.add(groupId);
+        putMembers(groupId, parseUsers(usersAttribute));
+    }
+
+    public void removeGroup(String groupId) {
+        setMembers(groupId, null);
+    }
+
+    private void putMembers(String groupId, Set<String> users) {
+        Set<String> oldUsers = usersByGroup.remove(groupId);
+        if (oldUsers != null) {
+            for (String user : oldUsers) {
+                if (!users.contains(user)) removeGroupFromUser(user, groupId);
+            }
+        } else {
+            oldUsers = Collections.emptySet();
+        }
+        for (String user : users) {
+            if (!oldUsers.contains(user)) addGroupToUser(user, groupId);
+        }
+        if (!users.isEmpty()) usersByGroup.put(groupId, users);
+    }
+
+    private void addGroupToUser(String user, String groupId) {
+        List<String> groups = groupsByUser.get(user);
+        List<String> newGroups = groups == null ? new ArrayList<String>(1) : new ArrayList<String>(groups);
+        newGroups.add(groupId);
+        groupsByUser.put(user, Collections.unmodifiableList(newGroups));
+    }
+
+    private void removeGroupFromUser(String user, String groupId) {
+        List<String> groups = groupsByUser.get(user);
+        if (groups == null) return;
+        List<String> newGroups = new ArrayList<String>(groups);
+        newGroups.remove(groupId);
+        if (newGroups.isEmpty()) groupsByUser.remove(user);
+        else groupsByUser.put(user, Collections.unmodifiableList(newGroups));
+    }
+
+    private static Set<String> parseUsers(String usersAttribute) {
+        if (usersAttribute == null) return Collections.emptySet();
+        Set<String> result = new LinkedHashSet<String>();
+        for (String user : usersAttribute.split("\n")) {
+            if (user.isEmpty()) continue;
+            result.add(user);
+        }
+        return result;
+    }
+}
@@ -14,15 +14,31 @@ public class QueryRestrictor {
     public static final String MATCH_NO_DOCUMENTS_QUERY = "this_field_will_never_exist:false";
 
     public static String restrict(String query, String userId, List<String> groupIds, AuthConfig authConfig, Map<String, AuthConfig> remoteAuthConfigs, boolean excludeVersions) {
+        String aclRestriction = aclRestriction(userId, groupIds, authConfig, remoteAuthConfigs);
+        return restrictWith(query, aclRestriction, excludeVersions);
+    }
+
+    /**
+     * Combines a query with a restriction from {@link #aclRestriction}; a null restriction leaves the query unrestricted.
+     */
+    public static String restrictWith(String query, String aclRestriction, boolean excludeVersions) {
         if ("*".equals(query.trim())) query = "*:*";
         if (excludeVersions) {
             query = "(" + query + ") AND NOT objatt_isVersion:true"; 
         }
         
-        if ("admin".equals(userId)) return query;
+        if (aclRestriction == null) return query;
+        return "(" + query + ") AND " + aclRestriction;
+    }
+
+    /**
+     * Returns the clause which limits a search to the objects the user may read, or null for admin.
+     * It depends only on the user, the groups and the auth configs, not on the query.
+     */
+    public static String aclRestriction(String userId, List<String> groupIds, AuthConfig authConfig, Map<String, AuthConfig> remoteAuthConfigs) {
+        if ("admin".equals(userId)) return null;
         StringBuilder sb = new StringBuilder();
-        sb.append("(").append(query).append(")");
-        sb.append(" AND (");
+        sb.append("(");
         sb.append("aclRead:public OR aclWrite:public");
         if (userId != null) {
             sb.append(" OR ((aclRead:self OR aclWrite:self) AND ");
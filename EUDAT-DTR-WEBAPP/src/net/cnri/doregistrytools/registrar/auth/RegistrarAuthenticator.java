@@ -33,6 +33,7 @@ import net.cnri.doregistrytools.registrar.auth.HashAndSalt;
 import net.cnri.doregistrytools.registrar.doip.RegistrarDoipOperations;
 
 import javax.servlet.ServletException;
+import net.cnri.doregistrytools.registrar.jsonschema.IndexGenerations;
 import net.cnri.doregistrytools.registrar.jsonschema.InvalidException;
 import net.cnri.doregistrytools.registrar.jsonschema.Payload;
 import net.cnri.doregistrytools.registrar.jsonschema.RegistrarService;
@@ -51,6 +52,7 @@ public class RegistrarAuthenticator {
     private AdminPasswordCheckerInterface adminPasswordChecker = null;
     private SecureRandom random = null;
     private Repository repo;
+    private volatile IndexGenerations indexGenerations;
 
     /**
      * For now just an admin password. Will add in users stored in the repo later. 
@@ -278,8 +280,17 @@ public class RegistrarAuthenticator {
     }
 
     
+    public void setIndexGenerations(IndexGenerations indexGenerations) {
+        this.indexGenerations = indexGenerations;
+    }
+    
+    /**
+     * Waits for the index only if there are writes it may not include yet, within the configured staleness.
+     */
     public void ensureIndexUpToDate() throws RepositoryException {
-        if (repo instanceof NetworkedRepository) {
+        if (indexGenerations != null) {
+            indexGenerations.awaitIndexed((String) null);
+        } else if (repo instanceof NetworkedRepository) {
             ((NetworkedRepository) repo).ensureIndexUpToDate();
         }
     }
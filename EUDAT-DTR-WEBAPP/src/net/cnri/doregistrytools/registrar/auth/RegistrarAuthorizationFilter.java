@@ -83,6 +83,9 @@ public class RegistrarAuthorizationFilter implements Filter {
         if (isAdministrativeRequest(req)) {
             return "admin".equals(userId);
         }
+        if (servletPath.startsWith("/validate")) {
+            return userId != null;
+        }
         if (servletPath.startsWith("/objects") || servletPath.startsWith("/acls")) {
             String objectId = getObjectId(req);
             if (objectId != null) {
@@ -153,6 +156,8 @@ public class RegistrarAuthorizationFilter implements Filter {
                 servletPath.startsWith("/config") ||
                 servletPath.startsWith("/generateKeys") ||
                 servletPath.startsWith("/updateHandles") ||
+                servletPath.startsWith("/migrateJsonStorage") ||
+                servletPath.startsWith("/reindex") ||
                 servletPath.startsWith("/schemas")) {
                 return true;
             } else {
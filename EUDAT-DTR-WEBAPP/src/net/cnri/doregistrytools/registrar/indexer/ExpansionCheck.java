@@ -0,0 +1,122 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.indexer;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.PrefixTermsEnum;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermRangeQuery;
+import org.apache.lucene.search.TermRangeTermsEnum;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+
+/**
+ * Counts how many index terms the wildcard, prefix and range queries of a search would expand to, in the index
+ * itself.  The search is sent through the repository as a probe, {@link #wrap(String)}; the index parses it with
+ * its own analyzers and, when it rewrites the probe against its reader, counts the terms of each pattern, notes
+ * any over the limit here, and matches nothing.  Only probes are counted, so the registry's own queries are not.
+ */
+public class ExpansionCheck {
+    static final String FIELD = "internal.expansionCheck";
+
+    private static final ConcurrentHashMap<String, ExpansionCheck> checks = new ConcurrentHashMap<String, ExpansionCheck>();
+
+    private final String token;
+    private final int maxTerms;
+    private volatile String exceeded;
+
+    private ExpansionCheck(String token, int maxTerms) {
+        this.token = token;
+        this.maxTerms = maxTerms;
+    }
+
+    /**
+     * Starts a check of patterns against the given maximum number of terms; {@link #finish()} must follow.
+     */
+    public static ExpansionCheck start(int maxTerms) {
+        String token = UUID.randomUUID().toString().replace("-", "");
+        ExpansionCheck check = new ExpansionCheck(token, maxTerms);
+        checks.put(token, check);
+        return check;
+    }
+
+    public void finish() {
+        checks.remove(token);
+    }
+
+    /**
+     * The probe query to search with.
+     */
+    public String wrap(String query) {
+        return "+" + FIELD + ":" + token + " +(" + query + ")";
+    }
+
+    /**
+     * After the probe search, the first pattern found to expand to more than the maximum, or null.
+     */
+    public String getExceeded() {
+        return exceeded;
+    }
+
+    static ExpansionCheck forToken(String token) {
+        return checks.get(token);
+    }
+
+    /**
+     * Makes each pattern of the parsed probe count its terms when rewritten, instead of expanding.
+     */
+    void apply(Query query) {
+        if (query instanceof BooleanQuery) {
+            for (BooleanClause clause : ((BooleanQuery) query).getClauses()) {
+                apply(clause.getQuery());
+            }
+        } else if (query instanceof WildcardQuery || query instanceof PrefixQuery || query instanceof TermRangeQuery) {
+            ((MultiTermQuery) query).setRewriteMethod(new CountingRewrite());
+        }
+    }
+
+    // number of distinct terms of the pattern, counting no further than maxTerms + 1
+    int countTerms(IndexReader reader, MultiTermQuery query) throws IOException {
+        Terms terms = MultiFields.getTerms(reader, query.getField());
+        if (terms == null) return 0;
+        TermsEnum termsEnum;
+        if (query instanceof WildcardQuery) {
+            termsEnum = new CompiledAutomaton(WildcardQuery.toAutomaton(((WildcardQuery) query).getTerm())).getTermsEnum(terms);
+        } else if (query instanceof PrefixQuery) {
+            termsEnum = new PrefixTermsEnum(terms.iterator(null), ((PrefixQuery) query).getPrefix().bytes());
+        } else {
+            TermRangeQuery rangeQuery = (TermRangeQuery) query;
+            termsEnum = new TermRangeTermsEnum(terms.iterator(null), rangeQuery.getLowerTerm(), rangeQuery.getUpperTerm(), rangeQuery.includesLower(), rangeQuery.includesUpper());
+        }
+        int count = 0;
+        while (count <= maxTerms && termsEnum.next() != null) {
+            count++;
+        }
+        return count;
+    }
+
+    private class CountingRewrite extends MultiTermQuery.RewriteMethod {
+        @Override
+        public Query rewrite(IndexReader reader, MultiTermQuery query) throws IOException {
+            if (exceeded == null && countTerms(reader, query) > maxTerms) exceeded = query.toString();
+            // a probe only counts; an empty query matches nothing
+            return new BooleanQuery();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+package net.cnri.doregistrytools.registrar.indexer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk cache of the text Tika extracts from payloads, keyed by a checksum and the size of the payload bytes (see
+ * {@link #key(String, long)}), so that
+ * reindexing an object whose payloads have not changed (after a metadata or ACL edit, or in a full reindex) does
+ * not parse them again.  Entries are gzipped files under the cache directory; the least recently used are deleted
+ * once the total exceeds the maximum size.  Set dtr.index.textCache.dir to move the cache from extractedTextCache
+ * under the server directory, and dtr.index.textCache.maxBytes (default 2GB) to resize it, or to 0 to disable it.
+ */
+public class ExtractedTextCache {
+    private static Logger logger = LoggerFactory.getLogger(ExtractedTextCache.class);
+    static final long DEFAULT_MAX_BYTES = 2L * 1024 * 1024 * 1024;
+    private static final String SUFFIX = ".txt.gz";
+
+    private final File dir;
+    private final long maxBytes;
+    // key to file size, least recently used first
+    private final LinkedHashMap<String, Long> sizes = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    // payload size to number of entries, so that payloads of sizes never cached need not be hashed to look them up
+    private final Map<Long, Integer> payloadSizes = new HashMap<Long, Integer>();
+    private long totalBytes;
+
+    ExtractedTextCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        load();
+    }
+
+    /**
+     * Returns the cache configured by system properties, or null if it is disabled.
+     */
+    public static ExtractedTextCache create(File serverBaseDir) {
+        long maxBytes = Long.getLong("dtr.index.textCache.maxBytes", DEFAULT_MAX_BYTES).longValue();
+        if (maxBytes <= 0) return null;
+        String dirName = System.getProperty("dtr.index.textCache.dir");
+        File dir;
+        if (dirName != null) dir = new File(dirName);
+        else if (serverBaseDir != null) dir = new File(serverBaseDir, "extractedTextCache");
+        else return null;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            logger.warn("Could not create extracted text cache " + dir);
+            return null;
+        }
+        return new ExtractedTextCache(dir, maxBytes);
+    }
+
+    private void load() {
+        List<File> files = new ArrayList<File>();
+        File[] subdirs = dir.listFiles();
+        if (subdirs == null) return;
+        for (File subdir : subdirs) {
+            File[] entries = subdir.listFiles();
+            if (entries == null) continue;
+            for (File entry : entries) {
+                if (entry.getName().endsWith(SUFFIX)) files.add(entry);
+                else entry.delete(); // left over from an interrupted write
+            }
+        }
+        // modification times are touched on use, so this restores the recency order
+        File[] sorted = files.toArray(new File[files.size()]);
+        Arrays.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+            }
+        });
+        synchronized (this) {
+            for (File file : sorted) {
+                String name = file.getName();
+                String key = name.substring(0, name.length() - SUFFIX.length());
+                if (payloadSizeOf(key) < 0) {
+                    file.delete();
+                    continue;
+                }
+                long size = file.length();
+                sizes.put(key, Long.valueOf(size));
+                adjustPayloadSizes(key, 1);
+                totalBytes += size;
+            }
+            evict();
+        }
+    }
+
+    /**
+     * The key of a payload with the given hex checksum (see {@link #newDigest()}) and size in bytes.
+     */
+    public static String key(String checksum, long payloadSize) {
+        return checksum + "-" + payloadSize;
+    }
+
+    private static long payloadSizeOf(String key) {
+        int dash = key.lastIndexOf('-');
+        if (dash < 0) return -1;
+        try {
+            return Long.parseLong(key.substring(dash + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void adjustPayloadSizes(String key, int delta) {
+        Long payloadSize = Long.valueOf(payloadSizeOf(key));
+        Integer count = payloadSizes.get(payloadSize);
+        int newCount = (count == null ? 0 : count.intValue()) + delta;
+        if (newCount > 0) payloadSizes.put(payloadSize, Integer.valueOf(newCount));
+        else payloadSizes.remove(payloadSize);
+    }
+
+    /**
+     * Returns false if no payload of this size is cached, in which case there is no point hashing one to look it up.
+     */
+    public synchronized boolean mayContain(long payloadSize) {
+        return payloadSizes.containsKey(Long.valueOf(payloadSize));
+    }
+
+    private File fileFor(String key) {
+        return new File(new File(dir, key.substring(0, 2)), key + SUFFIX);
+    }
+
+    /**
+     * Returns the cached text for the key, or null.
+     */
+    public String get(String key) {
+        synchronized (this) {
+            if (sizes.get(key) == null) return null;
+        }
+        File file = fileFor(key);
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), "UTF-8");
+            StringBuilder sb = new StringBuilder();
+            char[] buf = new char[8192];
+            int r;
+            while ((r = reader.read(buf)) > 0) {
+                sb.append(buf, 0, r);
+            }
+            file.setLastModified(System.currentTimeMillis());
+            return sb.toString();
+        } catch (IOException e) {
+            logger.warn("Ignoring unreadable extracted text " + file, e);
+            remove(key);
+            return null;
+        } finally {
+            if (reader != null) try { reader.close(); } catch (IOException e) { }
+        }
+    }
+
+    public void put(String key, String text) {
+        File file = fileFor(key);
+        File tmp = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+        Writer writer = null;
+        try {
+            file.getParentFile().mkdirs();
+            writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(tmp)), "UTF-8");
+            writer.write(text);
+            writer.close();
+            writer = null;
+            if (file.exists() && !file.delete()) throw new IOException("Could not replace " + file);
+            if (!tmp.renameTo(file)) throw new IOException("Could not rename " + tmp);
+        } catch (IOException e) {
+            logger.warn("Could not write extracted text " + file, e);
+            tmp.delete();
+            return;
+        } finally {
+            if (writer != null) try { writer.close(); } catch (IOException e) { }
+        }
+        synchronized (this) {
+            Long old = sizes.put(key, Long.valueOf(file.length()));
+            if (old != null) totalBytes -= old.longValue();
+            else adjustPayloadSizes(key, 1);
+            totalBytes += file.length();
+            evict();
+        }
+    }
+
+    private synchronized void remove(String key) {
+        Long old = sizes.remove(key);
+        if (old != null) {
+            totalBytes -= old.longValue();
+            adjustPayloadSizes(key, -1);
+        }
+        fileFor(key).delete();
+    }
+
+    private synchronized void evict() {
+        Iterator<Map.Entry<String, Long>> iter = sizes.entrySet().iterator();
+        while (totalBytes > maxBytes && iter.hasNext()) {
+            Map.Entry<String, Long> entry = iter.next();
+            totalBytes -= entry.getValue().longValue();
+            adjustPayloadSizes(entry.getKey(), -1);
+            fileFor(entry.getKey()).delete();
+            iter.remove();
+        }
+    }
+
+    /**
+     * The digest whose hex value is the checksum part of a key.
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Reads the stream to the end and returns the hex SHA-256 of its bytes.
+     */
+    public static String checksum(InputStream in) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buf = new byte[8192];
+        int r;
+        while ((r = in.read(buf)) > 0) {
+            digest.update(buf, 0, r);
+        }
+        return toHex(digest.digest());
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -8,21 +8,34 @@
 package net.cnri.doregistrytools.registrar.indexer;
 
 import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.security.DigestInputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.lucene.analysis.core.KeywordAnalyzer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DoubleField;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.NumericUtils;
 import org.apache.lucene.util.Version;
 import org.apache.tika.Tika;
 import org.apache.tika.exception.TikaException;
@@ -41,17 +54,24 @@ import net.cnri.dobj.DOException;
 import net.cnri.dobj.HeaderSet;
 import net.cnri.dobj.StorageProxy;
 import net.cnri.doregistrytools.registrar.jsonschema.Constants;
+import net.cnri.doregistrytools.registrar.jsonschema.ContentPlusMeta;
+import net.cnri.doregistrytools.registrar.jsonschema.IndexFieldTypes;
+import net.cnri.doregistrytools.registrar.jsonschema.IndexPolicy;
 import net.cnri.doregistrytools.registrar.jsonschema.InvalidException;
 import net.cnri.doregistrytools.registrar.jsonschema.JsonUtil;
+import net.cnri.doregistrytools.registrar.jsonschema.PayloadManifest;
 import net.cnri.doregistrytools.registrar.jsonschema.RegistrarService;
 import net.cnri.doregistrytools.registrar.jsonschema.RelationshipsService;
 import net.cnri.doregistrytools.registrar.jsonschema.SchemaAndNode;
+import net.cnri.repository.RepositoryException;
 
 public class JsonSchemaIndexBuilder extends DefaultIndexBuilder {
     private static Logger logger = LoggerFactory.getLogger(JsonSchemaIndexBuilder.class);
     
+    
     private final RegistrarService registrar;
     private final RelationshipsService relationshipsService;
+    private ExtractedTextCache textCache;
     
     public JsonSchemaIndexBuilder() {
         this.registrar = null;
@@ -74,6 +94,7 @@ public class JsonSchemaIndexBuilder extends DefaultIndexBuilder {
         addAnalyzer("username", new KeywordAnalyzer());
         addAnalyzer("schemaName", new KeywordAnalyzer());
         addAnalyzer("internal.pointsAt", new KeywordAnalyzer());
+        textCache = ExtractedTextCache.create(serverMain.getBaseFolder());
 //        try {
 //            String serverPrefix = serverMain.getConfigVal("handle_prefix");
 //            registrar = new RegistrarService(new InternalRepository(serverMain, new SimpleAuthenticatedCaller(serverMain.getServerID())), serverPrefix);
@@ -84,8 +105,126 @@ public class JsonSchemaIndexBuilder extends DefaultIndexBuilder {
 //        }
     }
     
+    /**
+     * Sorting by id uses the id field itself, which is already single-valued and untokenized, so that search
+     * cursors can break ties by handle without a reindex.
+     */
+    @Override
+    public String getSortFieldName(String field) {
+        if ("id".equals(field)) return "id";
+        return super.getSortFieldName(field);
+    }
+    
+    /**
+     * Range terms on sort fields and id are not lowercased, since those fields are not tokenized; search cursors
+     * rely on this.  Wildcard, prefix and range queries match every term they expand to; user queries which would
+     * expand to too many are refused beforehand by {@link net.cnri.doregistrytools.registrar.jsonschema.SearchLimits},
+     * which sends them here as an {@link ExpansionCheck} probe.
+     * <p>
+     * A range on a field some schema types as a number or date, with bounds of that type, searches the numeric
+     * field instead of the text; bounds on its sort field are encoded as the sort values are.
+     */
     public QueryParser getQueryParser() {
-        return new QueryParser(Version.LUCENE_47, "internal.all", getAnalyzer());
+        final IndexFieldTypes fieldTypes = getIndexFieldTypes();
+        QueryParser parser = new QueryParser(Version.LUCENE_47, "internal.all", getAnalyzer()) {
+            private ExpansionCheck expansionCheck;
+
+            @Override
+            public Query parse(String query) throws ParseException {
+                Query parsed = super.parse(query);
+                if (expansionCheck != null) expansionCheck.apply(parsed);
+                return parsed;
+            }
+
+            @Override
+            protected Query getFieldQuery(String field, String queryText, boolean quoted) throws ParseException {
+                if (ExpansionCheck.FIELD.equals(field)) {
+                    expansionCheck = ExpansionCheck.forToken(queryText);
+                    if (expansionCheck == null) throw new ParseException("Unknown expansion check " + queryText);
+                    return new BooleanQuery();
+                }
+                return super.getFieldQuery(field, queryText, quoted);
+            }
+
+            @Override
+            protected Query getRangeQuery(String field, String part1, String part2, boolean startInclusive, boolean endInclusive) throws ParseException {
+                if ("id".equals(field) || field.startsWith("sort_")) {
+                    if (field.startsWith("sort_")) {
+                        IndexFieldTypes.Kind kind = fieldTypes.getKind(field.substring("sort_".length()));
+                        part1 = sortableBound(kind, part1);
+                        part2 = sortableBound(kind, part2);
+                    }
+                    return newRangeQuery(field, part1, part2, startInclusive, endInclusive);
+                }
+                Query numericQuery = numericRangeQuery(fieldTypes.getKinds(field), field, part1, part2, startInclusive, endInclusive);
+                if (numericQuery != null) return numericQuery;
+                return super.getRangeQuery(field, part1, part2, startInclusive, endInclusive);
+            }
+        };
+        return parser;
+    }
+    
+    private IndexFieldTypes getIndexFieldTypes() {
+        if (registrar == null) return IndexFieldTypes.EMPTY;
+        return registrar.getIndexFieldTypes();
+    }
+    
+    /**
+     * The numeric field holding the values of a typed field; integers and dates share a long field.
+     */
+    static String numericFieldName(String field, IndexFieldTypes.Kind kind) {
+        if (kind == IndexFieldTypes.Kind.DOUBLE) return "double_" + field;
+        return "long_" + field;
+    }
+    
+    /**
+     * Sort field text for a number: fixed-width hex of its sortable bits, so that the string sort used for all
+     * sort fields orders numbers and dates numerically.  Values are encoded as doubles.
+     */
+    static String sortableText(Number value) {
+        long bits = NumericUtils.doubleToSortableLong(value.doubleValue()) ^ Long.MIN_VALUE;
+        String hex = Long.toHexString(bits);
+        StringBuilder sb = new StringBuilder(16);
+        for (int i = hex.length(); i < 16; i++) sb.append('0');
+        return sb.append(hex).toString();
+    }
+    
+    static String sortableBound(IndexFieldTypes.Kind kind, String bound) {
+        if (kind == null || bound == null || "*".equals(bound)) return bound;
+        Number value = IndexFieldTypes.parse(kind, bound);
+        if (value != null) return sortableText(value);
+        return bound;
+    }
+    
+    static Query numericRangeQuery(Set<IndexFieldTypes.Kind> kinds, String field, String part1, String part2, boolean startInclusive, boolean endInclusive) {
+        if (kinds.isEmpty()) return null;
+        BooleanQuery query = new BooleanQuery();
+        for (IndexFieldTypes.Kind kind : kinds) {
+            if (kind == IndexFieldTypes.Kind.DATE && kinds.contains(IndexFieldTypes.Kind.LONG) && isValidBound(IndexFieldTypes.Kind.LONG, part1) && isValidBound(IndexFieldTypes.Kind.LONG, part2)) {
+                continue; // same long field, already added
+            }
+            if (!isValidBound(kind, part1) || !isValidBound(kind, part2)) continue;
+            Number min = parseBound(kind, part1);
+            Number max = parseBound(kind, part2);
+            String numericField = numericFieldName(field, kind);
+            if (kind == IndexFieldTypes.Kind.DOUBLE) {
+                query.add(NumericRangeQuery.newDoubleRange(numericField, min == null ? null : min.doubleValue(), max == null ? null : max.doubleValue(), startInclusive, endInclusive), BooleanClause.Occur.SHOULD);
+            } else {
+                query.add(NumericRangeQuery.newLongRange(numericField, min == null ? null : min.longValue(), max == null ? null : max.longValue(), startInclusive, endInclusive), BooleanClause.Occur.SHOULD);
+            }
+        }
+        if (query.clauses().isEmpty()) return null;
+        if (query.clauses().size() == 1) return query.clauses().get(0).getQuery();
+        return query;
+    }
+    
+    private static boolean isValidBound(IndexFieldTypes.Kind kind, String bound) {
+        return bound == null || "*".equals(bound) || IndexFieldTypes.parse(kind, bound) != null;
+    }
+    
+    private static Number parseBound(IndexFieldTypes.Kind kind, String bound) {
+        if (bound == null || "*".equals(bound)) return null;
+        return IndexFieldTypes.parse(kind, bound);
     }
     
     @Override
@@ -126,9 +265,26 @@ public class JsonSchemaIndexBuilder extends DefaultIndexBuilder {
         }
         addFieldForAcl(doc, attributes, "aclRead");
         addFieldForAcl(doc, attributes, "aclWrite");
+        addPayloadManifest(doc, obj);
         return doc;
     }
     
+    private static void addPayloadManifest(Document doc, StorageProxy obj) throws DOException {
+        List<ContentPlusMeta.PayloadMetadata> payloads = new ArrayList<ContentPlusMeta.PayloadMetadata>();
+        @SuppressWarnings("unchecked")
+        Enumeration<String> elementNames = obj.listDataElements();
+        for (String elementName : Collections.list(elementNames)) {
+            HeaderSet elementAttributes = obj.getElementAttributes(elementName, null);
+            ContentPlusMeta.PayloadMetadata payload = new ContentPlusMeta.PayloadMetadata();
+            payload.name = elementName;
+            payload.filename = elementAttributes.getStringHeader("filename", null);
+            payload.mediaType = elementAttributes.getStringHeader("mimetype", null);
+            payload.size = elementAttributes.getLongHeader("internal.size", -1);
+            payloads.add(payload);
+        }
+        doc.add(new StoredField(PayloadManifest.FIELD, PayloadManifest.toJson(payloads)));
+    }
+    
     private void addFieldForAcl(Document doc, HeaderSet attributes, String name) {
         String acl = attributes.getStringHeader(name, null);
         if (acl == null) {
@@ -144,10 +300,16 @@ public class JsonSchemaIndexBuilder extends DefaultIndexBuilder {
     private void addFieldsForObjectsOfKnownTypes(Document doc, StorageProxy obj, HeaderSet attributes, String type, String remoteRepository, Collection<Runnable> cleanupActions) {
         boolean isKnownType = false;
         boolean indexPayloads = true;
+        IndexFieldTypes fieldTypes = IndexFieldTypes.EMPTY;
+        IndexPolicy indexPolicy = IndexPolicy.DEFAULT;
         if (registrar != null) {
             SchemaAndNode schemaAndNode = registrar.getSchema(type, remoteRepository);
             isKnownType = schemaAndNode != null;
-            if (schemaAndNode != null) indexPayloads = shouldIndexPayloads(schemaAndNode.schemaNode);
+            if (schemaAndNode != null) {
+                indexPayloads = shouldIndexPayloads(schemaAndNode.schemaNode);
+                if (schemaAndNode.indexFieldTypes != null) fieldTypes = schemaAndNode.indexFieldTypes;
+                if (schemaAndNode.indexPolicy != null) indexPolicy = schemaAndNode.indexPolicy;
+            }
             if (!isKnownType) {
                 try {
                     registrar.loadPersistentMetadata();//a new type might have been created at runtime.
@@ -161,13 +323,21 @@ public class JsonSchemaIndexBuilder extends DefaultIndexBuilder {
         if (json != null) {
             try {
                 JsonNode jsonNode = JsonUtil.parseJson(json);
-                addFieldsForJson(doc, jsonNode);
-                if (indexPayloads) addPayloads(doc, jsonNode, obj, cleanupActions);
+                if (json.indexOf('\n') >= 0 || json.indexOf('\r') >= 0) {
+                    // search results return the stored json as is
+                    doc.removeFields("objatt_json");
+                    doc.add(new TextField("objatt_json", JsonUtil.printJsonCompactly(jsonNode), Field.Store.YES));
+                }
+                addFieldsForJson(doc, jsonNode, fieldTypes, indexPolicy);
+                if (indexPayloads) addPayloads(doc, jsonNode, obj, indexPolicy, cleanupActions);
                 if (isKnownType && type != null) addReferencesField(doc, obj, type, remoteRepository, jsonNode);
+                if (registrar != null) updateSuggestIndex(obj, attributes, type, remoteRepository, jsonNode);
             } catch (InvalidException e) {
                 logger.warn("Exception indexing " + obj.getObjectID(), e);
             } catch (DOException e) {
                 logger.warn("Exception indexing " + obj.getObjectID(), e);
+            } catch (RepositoryException e) {
+                logger.warn("Exception indexing " + obj.getObjectID(), e);
             }
         }
         if (isKnownType && type != null && json != null) {
@@ -182,7 +352,7 @@ public class JsonSchemaIndexBuilder extends DefaultIndexBuilder {
         return indexPayloadsProperty.asBoolean();
     }
     
-    private void addPayloads(Document doc, JsonNode jsonNode, StorageProxy obj, Collection<Runnable> cleanupActions) throws InvalidException, DOException {
+    private void addPayloads(Document doc, JsonNode jsonNode, StorageProxy obj, IndexPolicy indexPolicy, Collection<Runnable> cleanupActions) throws InvalidException, DOException {
         @SuppressWarnings("unchecked")
         Enumeration<String> elementNames = obj.listDataElements();
         for (String elementName : Collections.list(elementNames)) {
@@ -191,11 +361,33 @@ public class JsonSchemaIndexBuilder extends DefaultIndexBuilder {
             // with json pointers to array elements into wildcards.
             String wildcardPayloadPointer = elementName;
             if (JsonUtil.isPayloadPointer(elementName)) wildcardPayloadPointer = JsonUtil.convertJsonPointerToUseWildCardForArrayIndices(elementName, jsonNode);
+            IndexPolicy.FieldPolicy policy = indexPolicy.getFieldPolicy(wildcardPayloadPointer);
+            if (!policy.indexed && !policy.all) continue;
+            long payloadSize = textCache == null ? -1 : obj.getElementAttributes(elementName, null).getLongHeader("internal.size", -1);
+            String extractedText = null;
+            // only hash the payload ahead of extraction when a cached payload of the same size could match it
+            if (payloadSize >= 0 && textCache.mayContain(payloadSize)) {
+                String checksum = payloadChecksum(obj, elementName);
+                if (checksum != null) extractedText = textCache.get(ExtractedTextCache.key(checksum, payloadSize));
+            }
+            if (extractedText != null) {
+                addPayloadTextToDocument(extractedText, doc, wildcardPayloadPointer, policy);
+                continue;
+            }
             final InputStream inputStream = obj.getDataElement(elementName);
             if (inputStream != null) {
 //                closeOnCleanup(cleanupActions, inputStream);
+                DigestInputStream digestStream = payloadSize >= 0 ? new DigestInputStream(inputStream, ExtractedTextCache.newDigest()) : null;
                 try {
-                    addPayloadTokensToDocument(inputStream, doc, wildcardPayloadPointer, obj.getObjectID());
+                    if (digestStream == null) {
+                        extractedText = addPayloadTokensToDocument(inputStream, doc, wildcardPayloadPointer, obj.getObjectID(), policy);
+                    } else {
+                        extractedText = addPayloadTokensToDocument(new UnclosableInputStream(digestStream), doc, wildcardPayloadPointer, obj.getObjectID(), policy);
+                        if (extractedText != null) {
+                            String checksum = finishChecksum(digestStream, elementName, obj.getObjectID());
+                            if (checksum != null) textCache.put(ExtractedTextCache.key(checksum, payloadSize), extractedText);
+                        }
+                    }
                 } finally {
                     try { inputStream.close(); } catch (Exception e) { }
                 }
@@ -204,6 +396,46 @@ public class JsonSchemaIndexBuilder extends DefaultIndexBuilder {
             }
         }
     }
+    
+    // Tika need not read to the end, so the rest is read here for the checksum to cover the whole payload
+    private static String finishChecksum(DigestInputStream digestStream, String elementName, String objectId) {
+        try {
+            byte[] buf = new byte[8192];
+            while (digestStream.read(buf) >= 0) {
+                // digested as read
+            }
+            return ExtractedTextCache.toHex(digestStream.getMessageDigest().digest());
+        } catch (IOException e) {
+            logger.warn("Exception reading payload " + elementName + " of " + objectId, e);
+            return null;
+        }
+    }
+
+    // Tika closes the stream it parses, which would stop the rest of the payload being read for its checksum
+    private static class UnclosableInputStream extends FilterInputStream {
+        UnclosableInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+            // closed by the caller
+        }
+    }
+
+    private static String payloadChecksum(StorageProxy obj, String elementName) {
+        InputStream inputStream = null;
+        try {
+            inputStream = obj.getDataElement(elementName);
+            if (inputStream == null) return null;
+            return ExtractedTextCache.checksum(inputStream);
+        } catch (Exception e) {
+            logger.warn("Exception reading payload " + elementName + " of " + obj.getObjectID(), e);
+            return null;
+        } finally {
+            if (inputStream != null) try { inputStream.close(); } catch (Exception e) { }
+        }
+    }
 
 //    private void closeOnCleanup(Collection<Runnable> cleanupActions, final Closeable closeable) {
 //        cleanupActions.add(new Runnable() {
@@ -218,7 +450,10 @@ public class JsonSchemaIndexBuilder extends DefaultIndexBuilder {
 //        });
 //    }
 
-    private void addPayloadTokensToDocument(InputStream stream, Document doc, String payloadFieldName, String objectId) {
+    /**
+     * Returns the extracted text, or null if extraction failed and the text added is partial.
+     */
+    private String addPayloadTokensToDocument(InputStream stream, Document doc, String payloadFieldName, String objectId, IndexPolicy.FieldPolicy policy) {
         Exception exception = null;
         Reader reader = null;
         StringBuilder sb = new StringBuilder();
@@ -240,12 +475,18 @@ public class JsonSchemaIndexBuilder extends DefaultIndexBuilder {
             try { reader.close(); } catch (IOException e) { }
         }
         String extractedText = sb.toString();
-        doc.add(new TextField(payloadFieldName, extractedText, Field.Store.NO));
-        doc.add(new TextField("internal.all", extractedText, Field.Store.NO));
+        addPayloadTextToDocument(extractedText, doc, payloadFieldName, policy);
         if (exception != null) {
             logger.warn("Exception indexing payload " + payloadFieldName + " of " + objectId, exception);
             doc.add(new TextField("payload_indexing_exception", "true", Field.Store.YES));
+            return null;
         }
+        return extractedText;
+    }
+    
+    private static void addPayloadTextToDocument(String extractedText, Document doc, String payloadFieldName, IndexPolicy.FieldPolicy policy) {
+        if (policy.indexed) doc.add(new TextField(payloadFieldName, extractedText, Field.Store.NO));
+        if (policy.all) doc.add(new TextField("internal.all", extractedText, Field.Store.NO));
     }
     
 //    public Reader parseToReader(InputStream stream) throws IOException {
@@ -265,33 +506,72 @@ public class JsonSchemaIndexBuilder extends DefaultIndexBuilder {
 //        }
 //    }
 
-    private void addFieldsForJson(Document doc, JsonNode jsonNode) {
-        addFieldsForJson(doc, jsonNode, "");
+    void addFieldsForJson(Document doc, JsonNode jsonNode) {
+        addFieldsForJson(doc, jsonNode, IndexFieldTypes.EMPTY, IndexPolicy.DEFAULT);
+    }
+    
+    /**
+     * Fields the schema types as numbers or dates also get a numeric field for range queries.  Sort fields are
+     * encoded by the types merged over all schemas, the same for every document: a field with a single kind
+     * there holds a {@link #sortableText(Number) sortable encoding}, left out where the value is not of that kind;
+     * any other holds the text.  Which of the text, stored, sort and internal.all fields each leaf gets is up to
+     * the type's {@link IndexPolicy}.
+     */
+    void addFieldsForJson(Document doc, JsonNode jsonNode, IndexFieldTypes fieldTypes, IndexPolicy indexPolicy) {
+        addFieldsForJson(doc, jsonNode, "", fieldTypes, getIndexFieldTypes(), indexPolicy);
     }
     
-    private void addFieldsForJson(Document doc, JsonNode jsonNode, String jsonPointer) {
+    private void addFieldsForJson(Document doc, JsonNode jsonNode, String jsonPointer, IndexFieldTypes fieldTypes, IndexFieldTypes sortTypes, IndexPolicy indexPolicy) {
         if (jsonNode.isArray()) {
             for (int i = 0; i < jsonNode.size(); i++) {
                 JsonNode child = jsonNode.path(i);
-                addFieldsForJson(doc, child, jsonPointer + "/_");
+                addFieldsForJson(doc, child, jsonPointer + "/_", fieldTypes, sortTypes, indexPolicy);
             }
         } else if (jsonNode.isObject()) {
             Iterator<String> iter = jsonNode.fieldNames();
             while (iter.hasNext()) {
                 String fieldName = iter.next();
                 JsonNode child = jsonNode.path(fieldName);
-                addFieldsForJson(doc, child, jsonPointer + "/" + JsonUtil.encodeSegment(fieldName));
+                addFieldsForJson(doc, child, jsonPointer + "/" + JsonUtil.encodeSegment(fieldName), fieldTypes, sortTypes, indexPolicy);
             }
         } else {
             String text = jsonNode.asText(null);
             if (text != null) {
-                doc.add(new TextField(jsonPointer, text, Field.Store.YES));
-                doc.add(new StringField(getSortFieldName(jsonPointer), text, Field.Store.NO));
-                doc.add(new TextField("internal.all", text, Field.Store.NO));
+                IndexPolicy.FieldPolicy policy = indexPolicy.getFieldPolicy(jsonPointer);
+                IndexFieldTypes.Kind kind = fieldTypes.getKind(jsonPointer);
+                Number value = kind == null ? null : IndexFieldTypes.toNumber(kind, jsonNode);
+                if (value != null && policy.indexed) addNumericField(doc, jsonPointer, kind, value);
+                String sortText = text;
+                IndexFieldTypes.Kind sortKind = sortTypes.getKind(jsonPointer);
+                if (sortKind != null) {
+                    Number sortValue = IndexFieldTypes.toNumber(sortKind, jsonNode);
+                    sortText = sortValue == null ? null : sortableText(sortValue);
+                }
+                if (policy.indexed) {
+                    doc.add(new TextField(jsonPointer, text, policy.stored ? Field.Store.YES : Field.Store.NO));
+                } else if (policy.stored) {
+                    doc.add(new StoredField(jsonPointer, text));
+                }
+                if (policy.sortable && sortText != null) doc.add(new StringField(getSortFieldName(jsonPointer), sortText, Field.Store.NO));
+                if (policy.all) doc.add(new TextField("internal.all", text, Field.Store.NO));
             }
         }
     }
 
+    private static void addNumericField(Document doc, String jsonPointer, IndexFieldTypes.Kind kind, Number value) {
+        if (kind == IndexFieldTypes.Kind.DOUBLE) {
+            doc.add(new DoubleField(numericFieldName(jsonPointer, kind), value.doubleValue(), Field.Store.NO));
+        } else {
+            doc.add(new LongField(numericFieldName(jsonPointer, kind), value.longValue(), Field.Store.NO));
+        }
+    }
+
+    private void updateSuggestIndex(StorageProxy obj, HeaderSet attributes, String type, String remoteRepository, JsonNode jsonNode) {
+        boolean isVersion = "true".equals(attributes.getStringHeader("isVersion", null));
+        registrar.getSuggestIndex().objectIndexed(obj.getObjectID(), type, remoteRepository, jsonNode, attributes.getStringHeader("aclRead", null),
+                attributes.getStringHeader("aclWrite", null), attributes.getStringHeader("createdBy", null), isVersion);
+    }
+
     private void addReferencesField(Document doc, StorageProxy obj, String objectType, String remoteRepository, JsonNode jsonNode) {
         if (relationshipsService == null) return;
         List<RelationshipsService.ObjectPointer> pointedAtIds;
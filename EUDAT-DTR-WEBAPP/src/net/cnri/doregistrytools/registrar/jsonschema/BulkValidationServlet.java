@@ -0,0 +1,54 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.cnri.repository.RepositoryException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+@WebServlet({"/validate/*"})
+public class BulkValidationServlet extends HttpServlet {
+    private static Logger logger = LoggerFactory.getLogger(BulkValidationServlet.class);
+
+    private static RegistrarService registrar;
+
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        try {
+            registrar = RegistrarServiceFactory.getRegistrarService(getServletContext());
+        } catch (Exception e) {
+            throw new ServletException(e);
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        try {
+            resp.setContentType("application/x-ndjson");
+            resp.setCharacterEncoding("UTF-8");
+            Writer w = resp.getWriter();
+            registrar.validateInBulk(new InputStreamReader(req.getInputStream(), "UTF-8"), w);
+            w.close();
+        } catch (RepositoryException e) {
+            logger.error("Unexpected error validating", e);
+            if (!resp.isCommitted()) ServletErrorUtil.internalServerError(resp);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.gson.Gson;
+
+import net.cnri.doregistrytools.registrar.jsonschema.DigitalObjectSchemaValidator.HandleReference;
+import net.cnri.repository.InternalException;
+import net.cnri.repository.RepositoryException;
+
+/**
+ * Validates a stream of newline-delimited {"type":..., "content":...} records without storing anything.
+ * Records are validated in parallel a chunk at a time; the handle references of a chunk are looked up together.
+ */
+public class BulkValidator {
+    private static Logger logger = LoggerFactory.getLogger(BulkValidator.class);
+
+    static final int CHUNK_SIZE = 1000;
+
+    private final RegistrarService registrar;
+    private final DigitalObjectSchemaValidator validator;
+    private final ForkJoinPool pool;
+    private final Gson gson = new Gson();
+
+    public BulkValidator(RegistrarService registrar, DigitalObjectSchemaValidator validator, int parallelism) {
+        this.registrar = registrar;
+        this.validator = validator;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    public static class Result {
+        public int line;
+        public boolean valid;
+        public String message;
+    }
+
+    private static class Record {
+        final int line;
+        final String json;
+        String message;
+        List<HandleReference> handleReferences;
+
+        Record(int line, String json) {
+            this.line = line;
+            this.json = json;
+        }
+    }
+
+    public void validate(Reader in, Writer out) throws IOException, RepositoryException {
+        BufferedReader reader = new BufferedReader(in);
+        List<Record> chunk = new ArrayList<Record>(CHUNK_SIZE);
+        int lineNum = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNum++;
+            if (line.trim().isEmpty()) continue;
+            chunk.add(new Record(lineNum, line));
+            if (chunk.size() >= CHUNK_SIZE) {
+                validateChunk(chunk, out);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) validateChunk(chunk, out);
+    }
+
+    private void validateChunk(List<Record> chunk, Writer out) throws IOException, RepositoryException {
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(chunk.size());
+        for (final Record record : chunk) {
+            tasks.add(new Callable<Void>() {
+                public Void call() {
+                    schemaValidate(record);
+                    return null;
+                }
+            });
+        }
+        for (Future<Void> future : pool.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InternalException(e);
+            } catch (ExecutionException e) {
+                throw new InternalException(e.getCause());
+            }
+        }
+        Set<String> handles = new LinkedHashSet<String>();
+        for (Record record : chunk) {
+            if (record.handleReferences == null) continue;
+            for (HandleReference handleReference : record.handleReferences) {
+                handles.add(handleReference.reference);
+            }
+        }
+        Map<String, String> typesByHandle = validator.getTypesForHandles(handles);
+        for (Record record : chunk) {
+            if (record.message == null) {
+                try {
+                    DigitalObjectSchemaValidator.checkHandleReferences(record.handleReferences, typesByHandle);
+                } catch (InvalidException e) {
+                    record.message = e.getMessage();
+                }
+            }
+            Result result = new Result();
+            result.line = record.line;
+            result.valid = record.message == null;
+            result.message = record.message;
+            out.write(gson.toJson(result));
+            out.write("\n");
+        }
+        out.flush();
+    }
+
+    private void schemaValidate(Record record) {
+        try {
+            JsonNode recordNode = JsonUtil.parseJson(record.json);
+            JsonNode typeNode = recordNode.get("type");
+            if (typeNode == null || !typeNode.isTextual()) throw new InvalidException("Missing type");
+            JsonNode contentNode = recordNode.get("content");
+            if (contentNode == null) throw new InvalidException("Missing content");
+            JsonNode remoteRepositoryNode = recordNode.get("remoteRepository");
+            String remoteRepository = remoteRepositoryNode == null ? null : remoteRepositoryNode.asText();
+            Map<String, JsonNode> pointerToSchemaMap = registrar.getPointerToSchemaMap(typeNode.asText(), remoteRepository, contentNode);
+            record.handleReferences = validator.collectHandleReferences(contentNode, pointerToSchemaMap);
+        } catch (InvalidException e) {
+            record.message = e.getMessage();
+        } catch (RuntimeException e) {
+            logger.error("Unexpected error validating line " + record.line, e);
+            record.message = "Unexpected error";
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,34 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+
+public class CacheStatistics {
+    public long size;
+    public long maximumSize;
+    public long hitCount;
+    public long missCount;
+    public long evictionCount;
+    public double hitRate;
+
+    public CacheStatistics(long size, long maximumSize, long hitCount, long missCount, long evictionCount) {
+        this.size = size;
+        this.maximumSize = maximumSize;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        long requestCount = hitCount + missCount;
+        this.hitRate = requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    public static CacheStatistics of(Cache<?, ?> cache, long maximumSize) {
+        CacheStats stats = cache.stats();
+        return new CacheStatistics(cache.size(), maximumSize, stats.hitCount(), stats.missCount(), stats.evictionCount());
+    }
+}
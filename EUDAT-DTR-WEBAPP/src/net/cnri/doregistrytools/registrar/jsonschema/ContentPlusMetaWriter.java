@@ -0,0 +1,115 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import net.cnri.repository.DigitalObject;
+import net.cnri.repository.InternalException;
+import net.cnri.repository.RepositoryException;
+
+/**
+ * Streams the same JSON as serializing {@link RegistrarService#createContentPlusMeta(DigitalObject)} with Gson,
+ * but copies the stored json attribute into the output as it is instead of parsing and re-serializing it.
+ */
+public class ContentPlusMetaWriter {
+    private static final JsonFactory factory = new JsonFactory();
+
+    /**
+     * Returns a generator writing to writer, indented unless compact; closing the generator does not close writer.
+     */
+    public static JsonGenerator createGenerator(Writer writer, boolean compact) throws IOException {
+        JsonGenerator generator = factory.createGenerator(writer);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        if (!compact) generator.useDefaultPrettyPrinter();
+        return generator;
+    }
+
+    public static void write(JsonGenerator generator, DigitalObject dobj) throws RepositoryException, IOException {
+        write(generator, dobj, false);
+    }
+
+    /**
+     * If singleLine is true, stored json which was pretty-printed is re-serialized compactly so that the output has no line breaks.
+     */
+    public static void write(JsonGenerator generator, DigitalObject dobj, boolean singleLine) throws RepositoryException, IOException {
+        write(generator, dobj, singleLine, null);
+    }
+
+    /**
+     * If filter is not null, content is projected to the listed JSON pointers and payloads are left out.
+     */
+    public static void write(JsonGenerator generator, DigitalObject dobj, boolean singleLine, List<String> filter) throws RepositoryException, IOException {
+        generator.writeStartObject();
+        generator.writeStringField("id", dobj.getHandle());
+        String type = dobj.getAttribute("type");
+        if (type != null) generator.writeStringField("type", type);
+        String jsonData = dobj.getAttribute("json");
+        if (jsonData != null && filter != null) {
+            jsonData = JsonUtil.printJsonCompactly(JsonUtil.project(parseJson(jsonData), filter));
+        } else if (jsonData != null && singleLine && (jsonData.indexOf('\n') >= 0 || jsonData.indexOf('\r') >= 0)) {
+            jsonData = JsonUtil.printJsonCompactly(parseJson(jsonData));
+        }
+        if (jsonData != null) {
+            generator.writeFieldName("content");
+            generator.writeRawValue(jsonData);
+        }
+        generator.writeFieldName("metadata");
+        writeMetadata(generator, dobj);
+        List<ContentPlusMeta.PayloadMetadata> payloads = filter == null ? PayloadManifest.getPayloads(dobj) : Collections.<ContentPlusMeta.PayloadMetadata>emptyList();
+        if (payloads.size() > 0) {
+            generator.writeArrayFieldStart("payloads");
+            for (ContentPlusMeta.PayloadMetadata payload : payloads) {
+                generator.writeStartObject();
+                writeIfNotNull(generator, "name", payload.name);
+                writeIfNotNull(generator, "filename", payload.filename);
+                writeIfNotNull(generator, "mediaType", payload.mediaType);
+                generator.writeNumberField("size", payload.size);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+    }
+
+    private static JsonNode parseJson(String jsonData) throws RepositoryException {
+        try {
+            return JsonUtil.parseJson(jsonData);
+        } catch (InvalidException e) {
+            throw new InternalException(e);
+        }
+    }
+
+    private static void writeMetadata(JsonGenerator generator, DigitalObject dobj) throws RepositoryException, IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("createdOn", Long.parseLong(dobj.getAttribute("internal.created")));
+        writeIfNotNull(generator, "createdBy", dobj.getAttribute("createdBy"));
+        generator.writeNumberField("modifiedOn", Long.parseLong(dobj.getAttribute("internal.modified")));
+        writeIfNotNull(generator, "modifiedBy", dobj.getAttribute("modifiedBy"));
+        boolean isVersion = "true".equals(dobj.getAttribute("isVersion"));
+        generator.writeBooleanField("isVersion", isVersion);
+        if (isVersion) {
+            writeIfNotNull(generator, "versionOf", dobj.getAttribute("versionOf"));
+            writeIfNotNull(generator, "publishedBy", dobj.getAttribute("publishedBy"));
+            generator.writeNumberField("publishedOn", Long.parseLong(dobj.getAttribute("publishedOn")));
+        }
+        writeIfNotNull(generator, "remoteRepository", dobj.getAttribute("remoteRepository"));
+        generator.writeEndObject();
+    }
+
+    private static void writeIfNotNull(JsonGenerator generator, String name, String value) throws IOException {
+        if (value == null) return;
+        generator.writeStringField(name, value);
+    }
+}
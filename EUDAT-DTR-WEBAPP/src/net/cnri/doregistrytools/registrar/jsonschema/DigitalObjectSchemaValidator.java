@@ -8,7 +8,9 @@
 package net.cnri.doregistrytools.registrar.jsonschema;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -27,6 +29,7 @@ import com.github.fge.jsonschema.main.JsonSchema;
 public class DigitalObjectSchemaValidator {
     
     private Repository repo;
+    private final HandleTypeCache handleTypeCache = new HandleTypeCache();
     
     public DigitalObjectSchemaValidator(Repository repo) {
         this.repo = repo;
@@ -41,6 +44,19 @@ public class DigitalObjectSchemaValidator {
         return SchemaExtractor.extract(report, schemaJson);
     }
     
+    public Map<String, JsonNode> schemaValidateAndReturnKeywordsMap(JsonNode dataNode, SchemaAndNode schema) throws InvalidException {
+        if (schema == null) throw new InvalidException("Null schema");
+        if (schema.keywordPlan == null) {
+            return schemaValidateAndReturnKeywordsMap(dataNode, schema.schemaNode, schema.schema);
+        }
+        if (schema.schema == null) throw new InvalidException("Null schema");
+        ProcessingReport report = validateJson(dataNode, schema.schema);
+        if (!report.isSuccess()) {
+            throw new InvalidException(report);
+        }
+        return schema.keywordPlan.apply(dataNode);
+    }
+    
     public void postSchemaValidate(JsonNode dataNode, Map<String, JsonNode> pointerToSchemaMap) throws InvalidException, RepositoryException {
         //validatePayloads(payloads, pointerToSchemaMap);
         validateHandleReferences(dataNode, pointerToSchemaMap);
@@ -60,6 +76,33 @@ public class DigitalObjectSchemaValidator {
 //    }
     
     void validateHandleReferences(JsonNode dataNode, Map<String, JsonNode> pointerToSchemaMap) throws InvalidException, RepositoryException {
+        List<HandleReference> handleReferences = collectHandleReferences(dataNode, pointerToSchemaMap);
+        if (handleReferences.isEmpty()) return;
+        List<String> handles = new ArrayList<String>(handleReferences.size());
+        for (HandleReference handleReference : handleReferences) {
+            handles.add(handleReference.reference);
+        }
+        checkHandleReferences(handleReferences, getTypesForHandles(handles));
+    }
+    
+    public static class HandleReference {
+        public final String reference;
+        public final List<String> types;
+        public final String jsonPointer;
+        
+        public HandleReference(String reference, List<String> types, String jsonPointer) {
+            this.reference = reference;
+            this.types = types;
+            this.jsonPointer = jsonPointer;
+        }
+    }
+    
+    /**
+     * Returns the local handle references of dataNode which must point at objects of particular types, without
+     * looking any of them up.
+     */
+    public List<HandleReference> collectHandleReferences(JsonNode dataNode, Map<String, JsonNode> pointerToSchemaMap) throws InvalidException {
+        List<HandleReference> result = new ArrayList<HandleReference>();
         for (Map.Entry<String, JsonNode> entry : pointerToSchemaMap.entrySet()) {
             String jsonPointer = entry.getKey();
             JsonNode subSchema = entry.getValue();
@@ -76,8 +119,55 @@ public class DigitalObjectSchemaValidator {
             
             JsonNode referenceNode = dataNode.at(jsonPointer);
             if (referenceNode == null) throw new InvalidException("Unexpected missing handle reference node " + jsonPointer);
-            validateHandleReference(referenceNode.asText(), referenceTypes, jsonPointer);
+            result.add(new HandleReference(referenceNode.asText(), referenceTypes, jsonPointer));
         }
+        return result;
+    }
+    
+    /**
+     * Checks handle references against already-resolved types; typesByHandle maps each referenced handle to its
+     * type, or to null if there is no such object.
+     */
+    public static void checkHandleReferences(List<HandleReference> handleReferences, Map<String, String> typesByHandle) throws InvalidException {
+        for (HandleReference handleReference : handleReferences) {
+            String reference = handleReference.reference;
+            if ("".equals(reference)) continue; //We currently permit empty String for the reference 
+            if (reference == null) throw new InvalidException("Unexpected missing handle reference node " + handleReference.jsonPointer);
+            if (!typesByHandle.containsKey(reference)) throw new InvalidException("Unexpected missing digital object " + reference + " at " + handleReference.jsonPointer);
+            String type = typesByHandle.get(reference);
+            checkHandleReferenceType(reference, type, handleReference.types, handleReference.jsonPointer);
+        }
+    }
+    
+    /**
+     * Looks up the type of each of the given handles.  Handles of missing objects are absent from the result;
+     * objects without a type map to null.  Handles not in the cache are read directly from the repository, which,
+     * unlike the index, never lags behind a write.
+     */
+    public Map<String, String> getTypesForHandles(Collection<String> handles) throws RepositoryException {
+        Map<String, String> result = new HashMap<String, String>();
+        for (String handle : handles) {
+            if (handle == null || "".equals(handle) || result.containsKey(handle)) continue;
+            String type = handleTypeCache.get(handle);
+            if (type != null) {
+                result.put(handle, type);
+                continue;
+            }
+            DigitalObject dobj = repo.getDigitalObject(handle);
+            if (dobj == null) continue;
+            type = dobj.getAttribute("type");
+            result.put(handle, type);
+            handleTypeCache.put(handle, type);
+        }
+        return result;
+    }
+    
+    public void invalidateHandleType(String handle) {
+        handleTypeCache.invalidate(handle);
+    }
+    
+    public CacheStatistics getHandleTypeCacheStatistics() {
+        return handleTypeCache.getStatistics();
     }
     
     public List<String> getHandleReferenceTypes(JsonNode handleReferenceTypeNode) {
@@ -98,12 +188,7 @@ public class DigitalObjectSchemaValidator {
         return result;
     }
 
-    void validateHandleReference(String reference, List<String> handleReferenceTypes, String jsonPointer) throws InvalidException, RepositoryException {
-        if ("".equals(reference)) return; //We currently permit empty String for the reference 
-        if (reference == null) throw new InvalidException("Unexpected missing handle reference node " + jsonPointer);
-        DigitalObject dobj = repo.getDigitalObject(reference);
-        if (dobj == null) throw new InvalidException("Unexpected missing digital object " + reference + " at " + jsonPointer);
-        String type = dobj.getAttribute("type");
+    private static void checkHandleReferenceType(String reference, String type, List<String> handleReferenceTypes, String jsonPointer) throws InvalidException {
         if (type == null || !handleReferenceTypes.contains(type)) {
             throw new InvalidException("Digital object " + reference + " referenced at " + jsonPointer + " has type " + type + ", expected " + handleReferenceTypes);
         }
@@ -0,0 +1,226 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.cnri.repository.CloseableIterator;
+import net.cnri.repository.DigitalObject;
+import net.cnri.repository.InternalException;
+import net.cnri.repository.Repository;
+import net.cnri.repository.RepositoryException;
+import net.cnri.repository.search.Query;
+import net.cnri.repository.search.QueryParams;
+
+/**
+ * Counts the values of several fields over the objects of one search, so that a set of counts costs a single
+ * pass over the matches instead of one query per value.  Fields are object attributes such as type and
+ * createdBy, or JSON pointers into the content named as in the index, where a "_" segment stands for every
+ * element of an array; a pointer to an array counts its elements.  The content is streamed, skipping everything
+ * outside the pointers counted.  Searches do not return versions, so there is no facet of the object a version
+ * is of.
+ */
+public class FacetCounter {
+    static final List<String> ATTRIBUTE_FIELDS = Arrays.asList("type", "createdBy", "modifiedBy", "remoteRepository");
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private final Map<String, Map<String, Integer>> counts = new LinkedHashMap<String, Map<String, Integer>>();
+    // the JSON pointers counted, and every pointer they are under
+    private final Set<String> jsonPrefixes = new HashSet<String>();
+
+    public FacetCounter(List<String> fields) throws InvalidException {
+        for (String field : fields) {
+            if (field.startsWith("/")) {
+                if (!JsonUtil.isValidJsonPointer(field)) throw new InvalidException("Invalid JSON Pointer in facets " + field);
+                for (int slash = field.indexOf('/', 1); slash > 0; slash = field.indexOf('/', slash + 1)) {
+                    jsonPrefixes.add(field.substring(0, slash));
+                }
+                jsonPrefixes.add(field);
+            } else if (!ATTRIBUTE_FIELDS.contains(field)) {
+                throw new InvalidException("Unsupported facet " + field);
+            }
+            counts.put(field, new HashMap<String, Integer>());
+        }
+    }
+
+    /**
+     * The stored fields the search needs to return for {@link #add(DigitalObject)}.
+     */
+    public List<String> getReturnedFields() {
+        List<String> result = new ArrayList<String>();
+        result.add("objectid");
+        for (String field : counts.keySet()) {
+            if (!field.startsWith("/")) result.add("objatt_" + field);
+        }
+        if (!jsonPrefixes.isEmpty()) result.add("objatt_json");
+        return result;
+    }
+
+    public void add(DigitalObject dobj) throws RepositoryException {
+        for (Map.Entry<String, Map<String, Integer>> entry : counts.entrySet()) {
+            String field = entry.getKey();
+            if (!field.startsWith("/")) increment(entry.getValue(), dobj.getAttribute(field));
+        }
+        if (jsonPrefixes.isEmpty()) return;
+        String json = dobj.getAttribute("json");
+        if (json == null) return;
+        try {
+            JsonParser parser = jsonFactory.createParser(json);
+            try {
+                if (parser.nextToken() != null) addValues(parser, "");
+            } finally {
+                parser.close();
+            }
+        } catch (IOException e) {
+            throw new InternalException(e);
+        }
+    }
+
+    /**
+     * Adds every match of the query, fetching only the fields counted.
+     */
+    public void addMatches(Repository repo, Query query) throws RepositoryException {
+        addMatches(repo, query, Long.MAX_VALUE);
+    }
+
+    /**
+     * As above, stopping at the deadline; returns false if it stopped before the last match.
+     */
+    public boolean addMatches(Repository repo, Query query, long deadline) throws RepositoryException {
+        QueryParams params = new QueryParams(0, 0, null, getReturnedFields());
+        CloseableIterator<DigitalObject> results = repo.search(query, params);
+        try {
+            while (results.hasNext()) {
+                if (System.currentTimeMillis() > deadline) return false;
+                add(results.next());
+            }
+            return true;
+        } finally {
+            results.close();
+        }
+    }
+
+    // the parser is at the current token of the value at pointer, which is named as in the index
+    private void addValues(JsonParser parser, String pointer) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            if (!pointer.isEmpty() && !jsonPrefixes.contains(pointer)) {
+                parser.skipChildren();
+                return;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String child = pointer + "/" + JsonUtil.encodeSegment(parser.getCurrentName());
+                parser.nextToken();
+                addValues(parser, child);
+            }
+        } else if (token == JsonToken.START_ARRAY) {
+            String child = pointer + "/_";
+            if (!jsonPrefixes.contains(child) && !counts.containsKey(pointer)) {
+                parser.skipChildren();
+                return;
+            }
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (parser.getCurrentToken().isScalarValue() && counts.containsKey(pointer)) {
+                    addScalar(parser, pointer);
+                }
+                addValues(parser, child);
+            }
+        } else if (token.isScalarValue()) {
+            addScalar(parser, pointer);
+        }
+    }
+
+    private void addScalar(JsonParser parser, String pointer) throws IOException {
+        if (parser.getCurrentToken() == JsonToken.VALUE_NULL) return;
+        Map<String, Integer> fieldCounts = counts.get(pointer);
+        if (fieldCounts != null) increment(fieldCounts, parser.getText());
+    }
+
+    private static void increment(Map<String, Integer> fieldCounts, String value) {
+        if (value == null) return;
+        Integer count = fieldCounts.get(value);
+        fieldCounts.put(value, count == null ? 1 : count + 1);
+    }
+
+    public List<String> getFields() {
+        return new ArrayList<String>(counts.keySet());
+    }
+
+    public Map<String, Integer> getCounts(String field) {
+        return counts.get(field);
+    }
+
+    /**
+     * The counts as compact JSON, for caching; {@link #setCounts(String)} restores them.
+     */
+    public String getCountsJson() throws IOException {
+        StringWriter writer = new StringWriter();
+        JsonGenerator generator = jsonFactory.createGenerator(writer);
+        write(generator);
+        generator.close();
+        return writer.toString();
+    }
+
+    public void setCounts(String countsJson) throws IOException {
+        JsonNode node = new ObjectMapper().readTree(countsJson);
+        for (Map.Entry<String, Map<String, Integer>> entry : counts.entrySet()) {
+            Map<String, Integer> fieldCounts = entry.getValue();
+            fieldCounts.clear();
+            Iterator<Map.Entry<String, JsonNode>> iter = node.path(entry.getKey()).fields();
+            while (iter.hasNext()) {
+                Map.Entry<String, JsonNode> bucket = iter.next();
+                fieldCounts.put(bucket.getKey(), Integer.valueOf(bucket.getValue().asInt()));
+            }
+        }
+    }
+
+    /**
+     * Writes an object from each field to its counts, most frequent value first.
+     */
+    public void write(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        for (Map.Entry<String, Map<String, Integer>> entry : counts.entrySet()) {
+            generator.writeObjectFieldStart(entry.getKey());
+            List<Map.Entry<String, Integer>> buckets = new ArrayList<Map.Entry<String, Integer>>(entry.getValue().entrySet());
+            Collections.sort(buckets, BY_COUNT_DESCENDING);
+            for (Map.Entry<String, Integer> bucket : buckets) {
+                generator.writeNumberField(bucket.getKey(), bucket.getValue().intValue());
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+    }
+
+    private static final Comparator<Map.Entry<String, Integer>> BY_COUNT_DESCENDING = new Comparator<Map.Entry<String, Integer>>() {
+        @Override
+        public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+            int res = b.getValue().compareTo(a.getValue());
+            if (res != 0) return res;
+            return a.getKey().compareTo(b.getKey());
+        }
+    };
+}
@@ -0,0 +1,52 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Remembers the type of objects which have been the target of a handle reference.  Only existing objects with
+ * a type are cached; callers must invalidate a handle when its object is deleted or replaced.
+ */
+public class HandleTypeCache {
+    public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+
+    private final long maximumSize;
+    private final Cache<String, String> cache;
+
+    public HandleTypeCache() {
+        this(Long.getLong("dtr.handleTypeCache.size", DEFAULT_MAXIMUM_SIZE).longValue());
+    }
+
+    public HandleTypeCache(long maximumSize) {
+        this.maximumSize = maximumSize;
+        this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    public String get(String handle) {
+        return cache.getIfPresent(handle);
+    }
+
+    public void put(String handle, String type) {
+        if (handle == null || type == null) return;
+        cache.put(handle, type);
+    }
+
+    public void invalidate(String handle) {
+        if (handle == null) return;
+        cache.invalidate(handle);
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    public CacheStatistics getStatistics() {
+        return CacheStatistics.of(cache, maximumSize);
+    }
+}
@@ -0,0 +1,198 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * The index fields whose values the schema declares as numbers or dates: {@code "type": "integer"},
+ * {@code "type": "number"}, or {@code "type": "string"} with {@code "format": "date-time"}.  Fields are named as
+ * the indexer names them (see {@link SchemaFieldWalker}); a field given different types in one schema is left untyped.
+ * A merged instance over all schemas lets the query parser treat a range as numeric wherever some schema does,
+ * and decides the encoding of each sort field, so that all documents use the same one.
+ */
+public class IndexFieldTypes {
+    public enum Kind { LONG, DOUBLE, DATE }
+
+    public static final IndexFieldTypes EMPTY = new IndexFieldTypes(Collections.<String, Set<Kind>>emptyMap());
+
+    private static final DateTimeFormatter DATE_TIME_PARSER = ISODateTimeFormat.dateTimeParser().withOffsetParsed();
+    private static final Pattern NOW_PATTERN = Pattern.compile("NOW(?:([+-])(\\d+)(DAYS?|HOURS?|MINUTES?|SECONDS?))?");
+
+    private final Map<String, Set<Kind>> kinds;
+
+    private IndexFieldTypes(Map<String, Set<Kind>> kinds) {
+        this.kinds = kinds;
+    }
+
+    public static IndexFieldTypes compile(JsonNode schemaNode) {
+        if (schemaNode == null || !schemaNode.isObject()) return EMPTY;
+        final Map<String, Set<Kind>> kinds = new HashMap<String, Set<Kind>>();
+        new SchemaFieldWalker(schemaNode) {
+            @Override
+            void visit(JsonNode schema, String field) {
+                Kind kind = kindOf(schema);
+                if (kind == null) return;
+                Set<Kind> set = kinds.get(field);
+                if (set == null) {
+                    set = EnumSet.noneOf(Kind.class);
+                    kinds.put(field, set);
+                }
+                set.add(kind);
+            }
+        }.walk();
+        if (kinds.isEmpty()) return EMPTY;
+        return new IndexFieldTypes(kinds);
+    }
+
+    public static IndexFieldTypes merge(Collection<SchemaAndNode> schemas) {
+        Map<String, Set<Kind>> kinds = new HashMap<String, Set<Kind>>();
+        for (SchemaAndNode schema : schemas) {
+            if (schema.indexFieldTypes == null) continue;
+            for (Map.Entry<String, Set<Kind>> entry : schema.indexFieldTypes.kinds.entrySet()) {
+                Set<Kind> set = kinds.get(entry.getKey());
+                if (set == null) {
+                    set = EnumSet.noneOf(Kind.class);
+                    kinds.put(entry.getKey(), set);
+                }
+                set.addAll(entry.getValue());
+            }
+        }
+        if (kinds.isEmpty()) return EMPTY;
+        return new IndexFieldTypes(kinds);
+    }
+
+    public boolean isEmpty() {
+        return kinds.isEmpty();
+    }
+
+    /**
+     * Returns the kind of the field, or null if it is untyped or given more than one kind.
+     */
+    public Kind getKind(String field) {
+        Set<Kind> set = kinds.get(field);
+        if (set == null || set.size() != 1) return null;
+        return set.iterator().next();
+    }
+
+    /**
+     * Whether some field has a different {@link #getKind(String) kind} here than in other.
+     */
+    public boolean hasChangedKinds(IndexFieldTypes other) {
+        Set<String> fields = new HashSet<String>(kinds.keySet());
+        fields.addAll(other.kinds.keySet());
+        for (String field : fields) {
+            if (getKind(field) != other.getKind(field)) return true;
+        }
+        return false;
+    }
+
+    public Set<Kind> getKinds(String field) {
+        Set<Kind> set = kinds.get(field);
+        if (set == null) return Collections.emptySet();
+        return set;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof IndexFieldTypes)) return false;
+        return kinds.equals(((IndexFieldTypes) obj).kinds);
+    }
+
+    @Override
+    public int hashCode() {
+        return kinds.hashCode();
+    }
+
+    private static Kind kindOf(JsonNode schema) {
+        JsonNode typeNode = schema.get("type");
+        if (typeNode == null) return null;
+        String type = null;
+        if (typeNode.isTextual()) {
+            type = typeNode.asText();
+        } else if (typeNode.isArray()) {
+            for (JsonNode element : typeNode) {
+                if ("null".equals(element.asText())) continue;
+                if (type != null) return null;
+                type = element.asText();
+            }
+        }
+        if ("integer".equals(type)) return Kind.LONG;
+        if ("number".equals(type)) return Kind.DOUBLE;
+        if ("string".equals(type)) {
+            JsonNode format = schema.get("format");
+            if (format != null && "date-time".equals(format.asText())) return Kind.DATE;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value of a JSON leaf as a Long (for LONG and DATE, as milliseconds) or Double, or null if it
+     * does not have the expected form.
+     */
+    public static Number toNumber(Kind kind, JsonNode node) {
+        if (kind == Kind.LONG && node.isIntegralNumber()) return Long.valueOf(node.asLong());
+        if (kind == Kind.DOUBLE && node.isNumber()) return Double.valueOf(node.asDouble());
+        if (!node.isTextual()) return null;
+        return parse(kind, node.asText());
+    }
+
+    /**
+     * Parses text as a value of the given kind.  Dates may be ISO 8601 (so 2015 is a year), NOW with an optional
+     * offset such as NOW-30DAYS, or, if neither, milliseconds since the epoch.  Returns null if the text does not
+     * parse.
+     */
+    public static Number parse(Kind kind, String text) {
+        if (text == null) return null;
+        text = text.trim();
+        try {
+            if (kind == Kind.LONG) return Long.valueOf(text);
+            if (kind == Kind.DOUBLE) return Double.valueOf(text);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        try {
+            return Long.valueOf(DATE_TIME_PARSER.parseMillis(text));
+        } catch (IllegalArgumentException e) {
+            // not ISO 8601
+        }
+        Matcher matcher = NOW_PATTERN.matcher(text);
+        try {
+            if (matcher.matches()) {
+                long now = System.currentTimeMillis();
+                if (matcher.group(1) == null) return Long.valueOf(now);
+                long offset = Long.parseLong(matcher.group(2)) * unitMillis(matcher.group(3));
+                return Long.valueOf("+".equals(matcher.group(1)) ? now + offset : now - offset);
+            }
+            return Long.valueOf(text);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long unitMillis(String unit) {
+        if (unit.startsWith("DAY")) return 24L * 60 * 60 * 1000;
+        if (unit.startsWith("HOUR")) return 60L * 60 * 1000;
+        if (unit.startsWith("MINUTE")) return 60L * 1000;
+        return 1000L;
+    }
+}
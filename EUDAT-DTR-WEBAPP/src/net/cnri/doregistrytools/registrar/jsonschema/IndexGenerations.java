@@ -0,0 +1,107 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.cnri.repository.Repository;
+import net.cnri.repository.RepositoryException;
+import net.cnri.repository.networked.NetworkedRepository;
+
+/**
+ * Tracks how far the index has caught up with the writes made through this webapp, so that a search only waits
+ * for the index when it needs a write which may not be indexed yet.  Each write advances the write generation,
+ * which is returned to clients in the X-Index-Generation response header; a request presenting that token waits
+ * until the index covers it.  Requests without a token wait only if there are writes not known to be indexed and
+ * the last catch-up is older than dtr.index.maxStalenessMillis (default 0, that is, always).
+ * <p>
+ * Generations start over when the webapp restarts.  The first catch-up after startup covers every earlier write,
+ * so a token from before a restart is treated as the current write generation.
+ */
+public class IndexGenerations {
+    public static final String HEADER = "X-Index-Generation";
+    public static final String PARAMETER = "indexGeneration";
+
+    private final Repository repo;
+    private final long maxStalenessMillis;
+    // starts ahead of indexedGeneration, as writes before startup are not known to be indexed
+    private final AtomicLong writeGeneration = new AtomicLong(1);
+    private volatile long indexedGeneration = 0;
+    private volatile long lastCaughtUp = 0;
+
+    public IndexGenerations(Repository repo) {
+        this(repo, Long.getLong("dtr.index.maxStalenessMillis", 0).longValue());
+    }
+
+    public IndexGenerations(Repository repo, long maxStalenessMillis) {
+        this.repo = repo;
+        this.maxStalenessMillis = maxStalenessMillis;
+    }
+
+    public long getWriteGeneration() {
+        return writeGeneration.get();
+    }
+
+    /**
+     * The write generation the index is known to include.
+     */
+    public long getIndexedGeneration() {
+        return indexedGeneration;
+    }
+
+    /**
+     * Called after each write; returns the token for it.
+     */
+    public long noteWrite() {
+        return writeGeneration.incrementAndGet();
+    }
+
+    /**
+     * Waits for the index to include every write made so far, whatever the generations say.
+     */
+    public void catchUp() throws RepositoryException {
+        long generation = writeGeneration.get();
+        if (repo instanceof NetworkedRepository) {
+            ((NetworkedRepository) repo).ensureIndexUpToDate();
+        }
+        synchronized (this) {
+            if (generation > indexedGeneration) indexedGeneration = generation;
+            lastCaughtUp = System.currentTimeMillis();
+        }
+    }
+
+    public void awaitIndexed(long generation) throws RepositoryException {
+        if (indexedGeneration >= Math.min(generation, writeGeneration.get())) return;
+        catchUp();
+    }
+
+    public void awaitAllIndexed() throws RepositoryException {
+        awaitIndexed(writeGeneration.get());
+    }
+
+    /**
+     * Waits as needed for a request presenting token, which may be null.
+     */
+    public void awaitIndexed(String token) throws RepositoryException {
+        Long generation = parseToken(token);
+        if (generation != null) {
+            awaitIndexed(generation.longValue());
+        } else if (indexedGeneration < writeGeneration.get() && System.currentTimeMillis() - lastCaughtUp > maxStalenessMillis) {
+            catchUp();
+        }
+    }
+
+    private static Long parseToken(String token) {
+        if (token == null) return null;
+        try {
+            return Long.valueOf(token.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
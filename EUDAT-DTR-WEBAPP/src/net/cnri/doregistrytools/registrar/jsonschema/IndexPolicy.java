@@ -0,0 +1,124 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * How the fields of a type are indexed, as declared by the "index" property of the repository keyword:
+ * <pre>
+ * "net.cnri.repository": { "index": { "indexed": true, "stored": false, "sortable": false, "all": false } }
+ * </pre>
+ * "indexed" makes the field searchable, "stored" keeps its text in the index, "sortable" adds the sort field and
+ * "all" copies the text into the default field, internal.all.  Omitted properties are inherited, and "index": false
+ * turns them all off.  A declaration applies to its field and every field beneath it, including payloads, unless
+ * a nearer one overrides it; the declaration on the root schema sets the defaults for the type.  Without any
+ * declaration every field is indexed, stored, sortable and copied, as before.
+ */
+public class IndexPolicy {
+    public static final IndexPolicy DEFAULT = new IndexPolicy(Collections.<String, JsonNode>emptyMap());
+
+    // bounds the memo, as objects with additionalProperties can have any number of fields
+    private static final int MAX_RESOLVED = 10000;
+
+    public static class FieldPolicy {
+        public static final FieldPolicy ALL = new FieldPolicy(true, true, true, true);
+
+        public final boolean indexed;
+        public final boolean stored;
+        public final boolean sortable;
+        public final boolean all;
+
+        FieldPolicy(boolean indexed, boolean stored, boolean sortable, boolean all) {
+            this.indexed = indexed;
+            this.stored = stored;
+            this.sortable = sortable;
+            this.all = all;
+        }
+
+        FieldPolicy override(JsonNode declaration) {
+            if (declaration.isBoolean()) {
+                boolean value = declaration.asBoolean();
+                return new FieldPolicy(value, value, value, value);
+            }
+            if (!declaration.isObject()) return this;
+            return new FieldPolicy(get(declaration, "indexed", indexed), get(declaration, "stored", stored), get(declaration, "sortable", sortable), get(declaration, "all", all));
+        }
+
+        private static boolean get(JsonNode declaration, String name, boolean inherited) {
+            JsonNode value = declaration.get(name);
+            if (value == null || !value.isBoolean()) return inherited;
+            return value.asBoolean();
+        }
+    }
+
+    // field to its "index" declaration
+    private final Map<String, JsonNode> declarations;
+    private final Map<String, FieldPolicy> resolved = new ConcurrentHashMap<String, FieldPolicy>();
+
+    private IndexPolicy(Map<String, JsonNode> declarations) {
+        this.declarations = declarations;
+    }
+
+    public static IndexPolicy compile(JsonNode schemaNode) {
+        if (schemaNode == null || !schemaNode.isObject()) return DEFAULT;
+        final Map<String, JsonNode> declarations = new HashMap<String, JsonNode>();
+        new SchemaFieldWalker(schemaNode) {
+            @Override
+            void visit(JsonNode schema, String field) {
+                JsonNode declaration = JsonUtil.getDeepProperty(schema, Constants.REPOSITORY_SCHEMA_KEYWORD, "index");
+                if (declaration == null) return;
+                if (!declaration.isBoolean() && !declaration.isObject()) return;
+                declarations.put(field, declaration);
+            }
+        }.walk();
+        if (declarations.isEmpty()) return DEFAULT;
+        return new IndexPolicy(declarations);
+    }
+
+    public boolean isDefault() {
+        return declarations.isEmpty();
+    }
+
+    public FieldPolicy getFieldPolicy(String field) {
+        if (declarations.isEmpty()) return FieldPolicy.ALL;
+        FieldPolicy policy = resolved.get(field);
+        if (policy == null) {
+            policy = resolve(field);
+            if (resolved.size() < MAX_RESOLVED) resolved.put(field, policy);
+        }
+        return policy;
+    }
+
+    private FieldPolicy resolve(String field) {
+        FieldPolicy inherited;
+        if (field.isEmpty()) inherited = FieldPolicy.ALL;
+        else if (!field.startsWith("/")) inherited = resolve(""); // payloads not named by pointer
+        else inherited = resolve(JsonUtil.getParentJsonPointer(field));
+        JsonNode declaration = declarations.get(field);
+        if (declaration == null) return inherited;
+        return inherited.override(declaration);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof IndexPolicy)) return false;
+        return declarations.equals(((IndexPolicy) obj).declarations);
+    }
+
+    @Override
+    public int hashCode() {
+        return declarations.hashCode();
+    }
+}
@@ -29,6 +29,7 @@ import com.github.fge.msgsimple.bundle.MessageBundle;
 
 public class JsonSchemaFactoryHolder {
     static JsonSchemaFactory INSTANCE;
+    static JsonSchemaFactory NON_RECORDING_INSTANCE;
 
     static {
         LibraryBuilder lib = DraftV4Library.get().thaw();
@@ -37,12 +38,23 @@ public class JsonSchemaFactoryHolder {
         ValidationConfigurationBuilder vcb = ValidationConfiguration.newBuilder();
         vcb.setDefaultLibrary("http://doregistry.org/schema", lib.freeze());   
         INSTANCE = JsonSchemaFactory.newBuilder().setValidationConfiguration(vcb.freeze()).freeze();
+
+        LibraryBuilder nonRecordingLib = DraftV4Library.get().thaw();
+        nonRecordingLib.addKeyword(recordingKeyword(Constants.REPOSITORY_SCHEMA_KEYWORD, NonRecordingRegistrarKeywordValidator.class));
+        ValidationConfigurationBuilder nonRecordingVcb = ValidationConfiguration.newBuilder();
+        nonRecordingVcb.setDefaultLibrary("http://doregistry.org/schema", nonRecordingLib.freeze());
+        NON_RECORDING_INSTANCE = JsonSchemaFactory.newBuilder().setValidationConfiguration(nonRecordingVcb.freeze()).freeze();
     }
     
     public static JsonSchemaFactory getJsonSchemaFactory() {
 //      return JsonSchemaFactory.byDefault();
       return JsonSchemaFactoryHolder.INSTANCE;
     }
+    
+    // for schemas with a KeywordPlan: the keyword is syntax-checked but emits no messages
+    public static JsonSchemaFactory getNonRecordingJsonSchemaFactory() {
+        return JsonSchemaFactoryHolder.NON_RECORDING_INSTANCE;
+    }
   
     private static Keyword recordingKeyword(String keyword, Class<? extends KeywordValidator> klass) {
         KeywordBuilder kb = Keyword.newBuilder(keyword);
@@ -91,4 +103,20 @@ public class JsonSchemaFactoryHolder {
             super(Constants.REPOSITORY_SCHEMA_KEYWORD, node);
         }
     }
+    
+    public static class NonRecordingRegistrarKeywordValidator extends AbstractKeywordValidator {
+        public NonRecordingRegistrarKeywordValidator(JsonNode node) {
+            super(Constants.REPOSITORY_SCHEMA_KEYWORD);
+        }
+        
+        @Override
+        public void validate(Processor<FullData,FullData> processor, ProcessingReport report, MessageBundle bundle, FullData data) throws ProcessingException {
+            // locations are known from the KeywordPlan
+        }
+        
+        @Override
+        public String toString() {
+            return "NonRecordingRegistrarKeywordValidator(" + keyword + ")";
+        }
+    }
 }
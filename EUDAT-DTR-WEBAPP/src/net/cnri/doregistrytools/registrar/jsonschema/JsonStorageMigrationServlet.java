@@ -0,0 +1,77 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.gson.Gson;
+
+/**
+ * POST starts rewriting the stored json of the objects of the types given by the type parameter (which must be
+ * given, and may be repeated) in the storage form set by dtr.jsonStorage.compact; GET returns the progress.
+ * Every object rewritten gets a new modification time, so replication peers will pull all of them again and
+ * their modifiedOn will no longer show the last edit of their content; migrate a type only when that is acceptable.
+ * A POST while a migration is running gets 409 with the progress of the running one.
+ */
+@WebServlet({"/migrateJsonStorage/*"})
+public class JsonStorageMigrationServlet extends HttpServlet {
+
+    private RegistrarService registrar;
+    private Gson gson;
+
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        try {
+            gson = new Gson();
+            registrar = RegistrarServiceFactory.getRegistrarService(getServletContext());
+        } catch (Exception e) {
+            throw new ServletException(e);
+        } 
+    }
+    
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        String[] types = request.getParameterValues("type");
+        if (types == null || types.length == 0) {
+            ServletErrorUtil.badRequest(response, "Missing type");
+            return;
+        }
+        for (String type : types) {
+            if (!registrar.isKnownType(type, null)) {
+                ServletErrorUtil.badRequest(response, "Unknown type " + type);
+                return;
+            }
+        }
+        if (!registrar.migrateJsonStorage(Arrays.asList(types))) {
+            response.setStatus(HttpServletResponse.SC_CONFLICT);
+            doGet(request, response);
+            return;
+        }
+        Writer w = response.getWriter();
+        w.write("{}");
+        w.flush();
+        w.close();
+    }
+    
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        JsonStorageMigrator.MigrationStatus status = registrar.getJsonStorageMigrationStatus();
+        String json = gson.toJson(status);
+        Writer w = response.getWriter();
+        w.write(json);
+        w.flush();
+        w.close();
+    }   
+
+}
@@ -0,0 +1,163 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import net.cnri.doregistrytools.registrar.auth.QueryRestrictor;
+import net.cnri.repository.DigitalObject;
+import net.cnri.repository.Repository;
+import net.cnri.repository.RepositoryException;
+import net.cnri.repository.search.QueryResults;
+import net.cnri.repository.search.RawQuery;
+
+/**
+ * Rewrites the stored json of the local objects of some types in the storage form currently configured, so that
+ * switching dtr.jsonStorage.compact on or off can be applied to existing objects and not only to new writes.
+ * Each object is re-read under its {@link ObjectLocks} lock so that concurrent updates are not overwritten.
+ * The storage stamps every rewrite as a modification, so a rewritten object gets a new modifiedOn and is pulled
+ * again by every replication peer; that is why a migration covers only the types it is asked for.
+ */
+public class JsonStorageMigrator {
+    private Logger logger = LoggerFactory.getLogger(new Object() { }.getClass().getEnclosingClass());
+    
+    private volatile boolean inProgress = false; 
+    private AtomicInteger progressCount = null;
+    private AtomicInteger rewrittenCount = null;
+    private int totalCount;
+    private Set<String> types;
+    private AtomicInteger exceptionCount = null;
+    private long startTime = 0L;
+    private volatile boolean shutdown = false;
+    
+    public JsonStorageMigrator() {
+        progressCount = new AtomicInteger();
+        rewrittenCount = new AtomicInteger();
+        exceptionCount = new AtomicInteger();
+    }
+    
+    public void shutdown() {
+        shutdown = true;
+    }
+    
+    /**
+     * Starts migrating the objects of the given types, unless a migration is already running.  Returns whether
+     * it started.
+     */
+    public synchronized boolean migrate(final RegistrarService registrar, final Repository repo, Collection<String> types) {
+        if (inProgress) {
+            return false;
+        }
+        this.types = new LinkedHashSet<String>(types);
+        startTime = System.currentTimeMillis();
+        exceptionCount.set(0);
+        progressCount.set(0);
+        rewrittenCount.set(0);
+        totalCount = 0;
+        inProgress = true;
+        new Thread() {
+            public void run() {
+                try {
+                    finishMigrate(registrar, repo);
+                } finally {
+                    finished();
+                }
+            }
+        }.start();
+        return true;
+    }
+    
+    // under the lock, so that a migrate call sees either the running migration or its end
+    private synchronized void finished() {
+        inProgress = false;
+    }
+    
+    private void finishMigrate(RegistrarService registrar, Repository repo) {
+        QueryResults<DigitalObject> iter = null;
+        try {
+            iter = (QueryResults<DigitalObject>) repo.search(new RawQuery("(" + getTypesQuery() + ") NOT objatt_meta:true NOT objatt_remote:true"));
+            totalCount = iter.size();
+            while (iter.hasNext()) {
+                if (shutdown) break;
+                String objectId = iter.next().getHandle();
+                try {
+                    if (migrateObject(registrar, repo, objectId)) rewrittenCount.incrementAndGet();
+                    progressCount.incrementAndGet();
+                } catch (Exception e) {
+                    logger.error("Exception migrating json storage of " + objectId, e);
+                    exceptionCount.incrementAndGet();
+                }
+            }
+        } catch (RepositoryException e) {
+            logger.error("Error listing objects", e);
+            exceptionCount.incrementAndGet();
+        } finally {
+            if (iter != null) {
+                iter.close();
+            }
+        }
+        logger.info("JSON storage migration of types " + types + " finished: " + rewrittenCount.get() + " of " + progressCount.get() + " objects rewritten, " + exceptionCount.get() + " errors");
+    }
+    
+    private String getTypesQuery() {
+        StringBuilder sb = new StringBuilder();
+        for (String type : types) {
+            if (sb.length() > 0) sb.append(" OR ");
+            sb.append("type:").append(QueryRestrictor.escape(type));
+        }
+        return sb.toString();
+    }
+    
+    private boolean migrateObject(RegistrarService registrar, Repository repo, String objectId) throws RepositoryException, InvalidException {
+        ObjectLocks locks = ObjectLocks.getInstance();
+        locks.lock(objectId);
+        try {
+            DigitalObject dobj = repo.getDigitalObject(objectId);
+            if (dobj == null) return false;
+            String json = dobj.getAttribute("json");
+            if (json == null) return false;
+            JsonNode jsonNode = JsonUtil.parseJson(json);
+            String migratedJson = registrar.serializeJsonForStorage(jsonNode);
+            if (migratedJson.equals(json)) return false;
+            dobj.setAttribute("json", migratedJson);
+            registrar.noteWrite();
+            return true;
+        } finally {
+            locks.unlock(objectId);
+        }
+    }
+    
+    public synchronized MigrationStatus getStatus() {
+        MigrationStatus status = new MigrationStatus();
+        status.inProgress = this.inProgress;
+        status.types = this.types;
+        status.total = this.totalCount;
+        status.startTime = this.startTime;
+        status.progress = this.progressCount.get();
+        status.rewritten = this.rewrittenCount.get();
+        status.exceptionCount = this.exceptionCount.get();
+        return status;
+    }
+    
+    public static class MigrationStatus {
+        public boolean inProgress = false; 
+        public Set<String> types;
+        public int total;
+        public int progress;
+        public int rewritten;
+        public long startTime;
+        public int exceptionCount;
+    }
+}
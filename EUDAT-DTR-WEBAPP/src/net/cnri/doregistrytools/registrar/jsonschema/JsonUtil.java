@@ -20,6 +20,7 @@ import com.fasterxml.jackson.core.TreeNode;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.github.fge.jackson.JsonLoader;
 import com.github.fge.jsonschema.core.exceptions.ProcessingException;
@@ -84,6 +85,36 @@ public class JsonUtil {
         }
     }
 
+    /**
+     * Returns a copy of jsonNode holding only the subtrees at the given pointers, keeping the objects along the
+     * path to each.  A path which reaches an array keeps that whole array.  Pointers which match nothing are ignored.
+     */
+    public static JsonNode project(JsonNode jsonNode, List<String> pointers) {
+        if (!jsonNode.isObject()) return jsonNode.deepCopy();
+        ObjectNode result = JsonNodeFactory.instance.objectNode();
+        for (String pointer : pointers) {
+            if ("".equals(pointer)) return jsonNode.deepCopy();
+            String[] segments = pointer.substring(1).split("/", -1);
+            JsonNode source = jsonNode;
+            ObjectNode target = result;
+            for (int i = 0; i < segments.length; i++) {
+                String fieldName = decodeSegment(segments[i]);
+                JsonNode child = source.get(fieldName);
+                if (child == null) break;
+                if (i == segments.length - 1 || !child.isObject()) {
+                    target.set(fieldName, child.deepCopy());
+                    break;
+                }
+                JsonNode existing = target.get(fieldName);
+                if (existing != null && !existing.isObject()) break;
+                if (existing == null) existing = target.putObject(fieldName);
+                source = child;
+                target = (ObjectNode) existing;
+            }
+        }
+        return result;
+    }
+
     public static void replaceJsonAtPointer(JsonNode jsonNode, String pointer, JsonNode replacement) {
         if ("".equals(pointer)) {
             throw new IllegalArgumentException("Can't replace empty pointer");
@@ -113,6 +144,15 @@ public class JsonUtil {
         }
     }
     
+    public static String printJsonCompactly(JsonNode jsonNode) throws RepositoryException {
+        ObjectMapper mapper = new ObjectMapper();
+        try {
+            return mapper.writeValueAsString(jsonNode);
+        } catch (JsonProcessingException e) {
+            throw new InternalException(e);
+        }
+    }
+    
     public static String getLastSegmentFromJsonPointer(String pointer) {
         if (!"".equals(pointer) && pointer.charAt(0) != '/') {
             throw new IllegalArgumentException("A Json Pointer that is not the empty string must start with a slash.");
@@ -170,6 +210,12 @@ public class JsonUtil {
         return schema;
     }
 
+    public static JsonSchema parseJsonSchemaWithoutRecording(JsonNode schemaNode) throws ProcessingException {
+        final JsonSchemaFactory factory = JsonSchemaFactoryHolder.getNonRecordingJsonSchemaFactory();
+        final JsonSchema schema = factory.getJsonSchema(schemaNode);
+        return schema;
+    }
+
     public static JsonNode parseJson(String jsonData) throws InvalidException {
         try {
             JsonNode dataNode = JsonLoader.fromString(jsonData);
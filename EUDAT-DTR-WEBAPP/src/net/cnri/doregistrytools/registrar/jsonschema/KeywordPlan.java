@@ -0,0 +1,331 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * The schema locations carrying the repository keyword, compiled once per schema.  Applying the plan to an
+ * already-validated instance yields the same pointer to subschema map that {@link SchemaExtractor} derives from
+ * the messages of the recording keyword validator, without needing those messages.
+ * <p>
+ * Keywords reachable only through branches whose outcome depends on validation ({@code oneOf}, {@code anyOf},
+ * {@code not}, schema {@code dependencies}) or through non-local {@code $ref}s cannot be placed statically;
+ * {@link #compile(JsonNode)} returns null for such schemas and callers fall back to the recording validator.
+ * Keywords under {@code allOf} are never reported by the recording validator (branch reports are discarded on
+ * success), so the plan ignores them as well.
+ */
+public class KeywordPlan {
+    private static final int MAX_REF_DEPTH = 64;
+
+    private final JsonNode rootSchema;
+    private final List<Keyword> keywords;
+    // schema nodes from which a keyword can be reached; subtrees of the instance under other schemas are skipped
+    private final Map<JsonNode, Boolean> relevance;
+    private final Map<String, Pattern> patterns;
+
+    public static class Keyword {
+        public final String schemaPointer;
+        public final JsonNode subSchema;
+        public final JsonNode handleReference;
+        public final String auth;
+        public final boolean isPrimary;
+        public final String mediaType;
+        public final String autoGeneratedField;
+
+        Keyword(String schemaPointer, JsonNode subSchema) {
+            this.schemaPointer = schemaPointer;
+            this.subSchema = subSchema;
+            JsonNode keywordNode = subSchema.get(Constants.REPOSITORY_SCHEMA_KEYWORD);
+            this.handleReference = JsonUtil.getDeepProperty(keywordNode, "type", "handleReference");
+            JsonNode authNode = keywordNode.get("auth");
+            this.auth = authNode == null ? null : authNode.asText();
+            JsonNode isPrimaryNode = JsonUtil.getDeepProperty(keywordNode, "preview", "isPrimary");
+            this.isPrimary = isPrimaryNode != null && isPrimaryNode.asBoolean();
+            JsonNode mediaTypeNode = JsonUtil.getDeepProperty(keywordNode, "response", "mediaType");
+            this.mediaType = mediaTypeNode == null ? null : mediaTypeNode.asText();
+            JsonNode autoGeneratedFieldNode = JsonUtil.getDeepProperty(keywordNode, "type", "autoGeneratedField");
+            this.autoGeneratedField = autoGeneratedFieldNode == null ? null : autoGeneratedFieldNode.asText(null);
+        }
+
+        public boolean isUsername() {
+            return "username".equals(auth);
+        }
+
+        public boolean isPassword() {
+            return "password".equals(auth);
+        }
+
+        public boolean isUsersList() {
+            return "usersList".equals(auth);
+        }
+    }
+
+    private KeywordPlan(JsonNode rootSchema, List<Keyword> keywords, Map<JsonNode, Boolean> relevance, Map<String, Pattern> patterns) {
+        this.rootSchema = rootSchema;
+        this.keywords = keywords;
+        this.relevance = relevance;
+        this.patterns = patterns;
+    }
+
+    public static KeywordPlan compile(JsonNode schemaNode) {
+        if (schemaNode == null || !schemaNode.isObject()) return null;
+        Collector collector = new Collector(schemaNode);
+        if (!collector.collect(schemaNode, "", false)) return null;
+        List<Keyword> keywords = new ArrayList<Keyword>(collector.keywords.values());
+        collector.isRelevant(schemaNode);
+        return new KeywordPlan(schemaNode, Collections.unmodifiableList(keywords), collector.relevance, collector.patterns);
+    }
+
+    public List<Keyword> getKeywords() {
+        return keywords;
+    }
+
+    public boolean isEmpty() {
+        return keywords.isEmpty();
+    }
+
+    /**
+     * Walks the instance along the schema and returns instance pointer to subschema for every repository keyword
+     * that applies.  The instance must already be valid against the schema.
+     */
+    public Map<String, JsonNode> apply(JsonNode instance) {
+        if (keywords.isEmpty()) return new HashMap<String, JsonNode>();
+        Map<String, JsonNode> result = new LinkedHashMap<String, JsonNode>();
+        walk(rootSchema, instance, "", result, 0);
+        return result;
+    }
+
+    private void walk(JsonNode schema, JsonNode instance, String instancePointer, Map<String, JsonNode> result, int refDepth) {
+        if (schema == null || !schema.isObject() || instance == null || instance.isMissingNode()) return;
+        if (Boolean.FALSE.equals(relevance.get(schema))) return;
+        JsonNode ref = schema.get("$ref");
+        if (ref != null && ref.isTextual()) {
+            if (refDepth > MAX_REF_DEPTH) return;
+            JsonNode target = resolveLocalRef(ref.asText());
+            walk(target, instance, instancePointer, result, refDepth + 1);
+            return;
+        }
+        if (schema.has(Constants.REPOSITORY_SCHEMA_KEYWORD)) {
+            result.put(instancePointer, schema);
+        }
+        if (instance.isObject()) {
+            walkObject(schema, instance, instancePointer, result);
+        } else if (instance.isArray()) {
+            walkArray(schema, instance, instancePointer, result);
+        }
+    }
+
+    private void walkObject(JsonNode schema, JsonNode instance, String instancePointer, Map<String, JsonNode> result) {
+        JsonNode properties = schema.get("properties");
+        JsonNode patternProperties = schema.get("patternProperties");
+        JsonNode additionalProperties = schema.get("additionalProperties");
+        Iterator<String> iter = instance.fieldNames();
+        while (iter.hasNext()) {
+            String fieldName = iter.next();
+            JsonNode child = instance.get(fieldName);
+            String childPointer = instancePointer + "/" + JsonUtil.encodeSegment(fieldName);
+            boolean matched = false;
+            if (properties != null && properties.has(fieldName)) {
+                matched = true;
+                walk(properties.get(fieldName), child, childPointer, result, 0);
+            }
+            if (patternProperties != null) {
+                Iterator<String> patterns = patternProperties.fieldNames();
+                while (patterns.hasNext()) {
+                    String pattern = patterns.next();
+                    if (matches(pattern, fieldName)) {
+                        matched = true;
+                        walk(patternProperties.get(pattern), child, childPointer, result, 0);
+                    }
+                }
+            }
+            if (!matched && additionalProperties != null && additionalProperties.isObject()) {
+                walk(additionalProperties, child, childPointer, result, 0);
+            }
+        }
+    }
+
+    private void walkArray(JsonNode schema, JsonNode instance, String instancePointer, Map<String, JsonNode> result) {
+        JsonNode items = schema.get("items");
+        JsonNode additionalItems = schema.get("additionalItems");
+        for (int i = 0; i < instance.size(); i++) {
+            JsonNode child = instance.get(i);
+            String childPointer = instancePointer + "/" + i;
+            if (items != null && items.isObject()) {
+                walk(items, child, childPointer, result, 0);
+            } else if (items != null && items.isArray() && i < items.size()) {
+                walk(items.get(i), child, childPointer, result, 0);
+            } else if (additionalItems != null && additionalItems.isObject()) {
+                walk(additionalItems, child, childPointer, result, 0);
+            }
+        }
+    }
+
+    private JsonNode resolveLocalRef(String ref) {
+        if (!ref.startsWith("#")) return null;
+        String pointer = decodeFragment(ref);
+        if (pointer == null) return null;
+        JsonNode target = rootSchema.at(pointer);
+        if (target.isMissingNode()) return null;
+        return target;
+    }
+
+    private boolean matches(String pattern, String fieldName) {
+        Pattern compiled = patterns.get(pattern);
+        if (compiled == null) {
+            try {
+                compiled = Pattern.compile(pattern);
+            } catch (PatternSyntaxException e) {
+                return false;
+            }
+        }
+        return compiled.matcher(fieldName).find();
+    }
+
+    private static class Collector {
+        final JsonNode rootSchema;
+        final Map<String, Keyword> keywords = new LinkedHashMap<String, Keyword>();
+        final Set<String> visitedRefs = new HashSet<String>();
+        final Map<JsonNode, Boolean> relevance = new IdentityHashMap<JsonNode, Boolean>();
+        final Map<String, Pattern> patterns = new HashMap<String, Pattern>();
+
+        Collector(JsonNode rootSchema) {
+            this.rootSchema = rootSchema;
+        }
+
+        // Returns false if a keyword is found somewhere a static plan cannot reach it.
+        boolean collect(JsonNode schema, String schemaPointer, boolean underConditional) {
+            if (schema == null || !schema.isObject()) return true;
+            JsonNode ref = schema.get("$ref");
+            if (ref != null && ref.isTextual()) {
+                String refString = ref.asText();
+                if (!refString.startsWith("#")) return false;
+                String targetPointer = decodeFragment(refString);
+                if (targetPointer == null) return false;
+                if (!visitedRefs.add(targetPointer + (underConditional ? "?" : ""))) return true;
+                return collect(rootSchema.at(targetPointer), targetPointer, underConditional);
+            }
+            if (schema.has(Constants.REPOSITORY_SCHEMA_KEYWORD)) {
+                if (underConditional) return false;
+                if (!keywords.containsKey(schemaPointer)) keywords.put(schemaPointer, new Keyword(schemaPointer, schema));
+            }
+            if (!collectSchemaMap(schema.get("properties"), schemaPointer + "/properties", underConditional)) return false;
+            if (!collectSchemaMap(schema.get("patternProperties"), schemaPointer + "/patternProperties", underConditional)) return false;
+            if (!collectSchemaMap(schema.get("definitions"), schemaPointer + "/definitions", underConditional)) return false;
+            if (!collectSchemaOrArray(schema.get("items"), schemaPointer + "/items", underConditional)) return false;
+            if (!collect(schema.get("additionalItems"), schemaPointer + "/additionalItems", underConditional)) return false;
+            if (!collect(schema.get("additionalProperties"), schemaPointer + "/additionalProperties", underConditional)) return false;
+            if (!collectSchemaOrArray(schema.get("anyOf"), schemaPointer + "/anyOf", true)) return false;
+            if (!collectSchemaOrArray(schema.get("oneOf"), schemaPointer + "/oneOf", true)) return false;
+            if (!collect(schema.get("not"), schemaPointer + "/not", true)) return false;
+            if (!collectSchemaMap(schema.get("dependencies"), schemaPointer + "/dependencies", true)) return false;
+            return true;
+        }
+
+        boolean isRelevant(JsonNode schema) {
+            if (schema == null || !schema.isObject()) return false;
+            Boolean known = relevance.get(schema);
+            if (known != null) return known.booleanValue();
+            // provisionally true so that recursive $refs terminate
+            relevance.put(schema, Boolean.TRUE);
+            boolean result;
+            JsonNode ref = schema.get("$ref");
+            if (ref != null && ref.isTextual()) {
+                String targetPointer = decodeFragment(ref.asText());
+                result = targetPointer == null || isRelevant(rootSchema.at(targetPointer));
+            } else {
+                result = schema.has(Constants.REPOSITORY_SCHEMA_KEYWORD);
+                result |= isRelevantMap(schema.get("properties"));
+                result |= isRelevantMap(schema.get("patternProperties"));
+                result |= isRelevantSchemaOrArray(schema.get("items"));
+                result |= isRelevant(schema.get("additionalItems"));
+                result |= isRelevant(schema.get("additionalProperties"));
+                JsonNode patternProperties = schema.get("patternProperties");
+                if (patternProperties != null && patternProperties.isObject()) {
+                    Iterator<String> iter = patternProperties.fieldNames();
+                    while (iter.hasNext()) {
+                        String pattern = iter.next();
+                        try {
+                            patterns.put(pattern, Pattern.compile(pattern));
+                        } catch (PatternSyntaxException e) {
+                            // never matches
+                        }
+                    }
+                }
+            }
+            relevance.put(schema, Boolean.valueOf(result));
+            return result;
+        }
+
+        private boolean isRelevantMap(JsonNode map) {
+            if (map == null || !map.isObject()) return false;
+            boolean result = false;
+            for (JsonNode child : map) {
+                result |= isRelevant(child);
+            }
+            return result;
+        }
+
+        private boolean isRelevantSchemaOrArray(JsonNode node) {
+            if (node == null) return false;
+            if (!node.isArray()) return isRelevant(node);
+            boolean result = false;
+            for (JsonNode child : node) {
+                result |= isRelevant(child);
+            }
+            return result;
+        }
+
+        private boolean collectSchemaMap(JsonNode map, String mapPointer, boolean underConditional) {
+            if (map == null || !map.isObject()) return true;
+            Iterator<Map.Entry<String, JsonNode>> iter = map.fields();
+            while (iter.hasNext()) {
+                Map.Entry<String, JsonNode> entry = iter.next();
+                if (!collect(entry.getValue(), mapPointer + "/" + JsonUtil.encodeSegment(entry.getKey()), underConditional)) return false;
+            }
+            return true;
+        }
+
+        private boolean collectSchemaOrArray(JsonNode node, String pointer, boolean underConditional) {
+            if (node == null) return true;
+            if (node.isArray()) {
+                for (int i = 0; i < node.size(); i++) {
+                    if (!collect(node.get(i), pointer + "/" + i, underConditional)) return false;
+                }
+                return true;
+            }
+            return collect(node, pointer, underConditional);
+        }
+    }
+
+    static String decodeFragment(String ref) {
+        try {
+            String fragment = new URI(ref).getFragment();
+            if (fragment == null) return "";
+            return fragment;
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+}
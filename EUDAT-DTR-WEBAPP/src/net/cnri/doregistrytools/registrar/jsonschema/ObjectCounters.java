@@ -0,0 +1,135 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.cnri.repository.Repository;
+import net.cnri.repository.RepositoryException;
+import net.cnri.repository.networked.NetworkedRepository;
+import net.cnri.repository.search.RawQuery;
+
+/**
+ * Number of objects of each type and by each creator, kept in memory so that /status and the count by user
+ * do not need a query per type or per user.  The write path adjusts the counts as objects are created and
+ * deleted; a background task replaces them with a recount from the index every dtr.objectCounters.reconcileMinutes
+ * (default 60), and within a minute after replicated objects arrive, since a replicated object may be new or may
+ * replace an earlier copy.  A write racing with a recount can leave a count off by one until the next recount.
+ */
+public class ObjectCounters implements Runnable {
+    private static Logger logger = LoggerFactory.getLogger(ObjectCounters.class);
+
+    static final long RECONCILE_MINUTES = Long.getLong("dtr.objectCounters.reconcileMinutes", 60);
+
+    private final Repository repo;
+    private final ScheduledExecutorService scheduler;
+    // held by the first readers while they wait for the initial count; the scan itself never holds this object's monitor
+    private final Object loadLock = new Object();
+    private Map<String, Integer> typeCounts = new HashMap<String, Integer>();
+    private Map<String, Integer> creatorCounts = new HashMap<String, Integer>();
+    private volatile boolean loaded = false;
+    private volatile boolean stale = false;
+    private long lastReconciled;
+
+    public ObjectCounters(Repository repo) {
+        this.repo = repo;
+        scheduler = Executors.newScheduledThreadPool(1);
+        scheduler.scheduleWithFixedDelay(this, 1, 1, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void run() {
+        if (loaded && !stale && System.currentTimeMillis() - lastReconciled < TimeUnit.MINUTES.toMillis(RECONCILE_MINUTES)) return;
+        try {
+            reconcile();
+        } catch (Exception e) {
+            logger.error("Exception reconciling object counters", e);
+        }
+    }
+
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    public void reconcile() throws RepositoryException {
+        stale = false;
+        if (repo instanceof NetworkedRepository) {
+            ((NetworkedRepository) repo).ensureIndexUpToDate();
+        }
+        FacetCounter facets;
+        try {
+            facets = new FacetCounter(Arrays.asList("type", "createdBy"));
+        } catch (InvalidException e) {
+            throw new AssertionError(e);
+        }
+        facets.addMatches(repo, new RawQuery("*:*"));
+        synchronized (this) {
+            typeCounts = facets.getCounts("type");
+            creatorCounts = facets.getCounts("createdBy");
+            lastReconciled = System.currentTimeMillis();
+            loaded = true;
+        }
+    }
+
+    private void ensureLoaded() throws RepositoryException {
+        if (loaded) return;
+        synchronized (loadLock) {
+            if (loaded) return;
+            reconcile();
+        }
+    }
+
+    public synchronized void objectAdded(String type, String createdBy) {
+        adjust(typeCounts, type, 1);
+        adjust(creatorCounts, createdBy, 1);
+    }
+
+    public synchronized void objectDeleted(String type, String createdBy) {
+        adjust(typeCounts, type, -1);
+        adjust(creatorCounts, createdBy, -1);
+    }
+
+    /**
+     * Marks the counts for a recount, for changes whose effect on them is unknown.
+     */
+    public void markStale() {
+        stale = true;
+    }
+
+    private static void adjust(Map<String, Integer> counts, String key, int delta) {
+        if (key == null) return;
+        Integer count = counts.get(key);
+        int newCount = (count == null ? 0 : count) + delta;
+        if (newCount > 0) counts.put(key, newCount);
+        else counts.remove(key);
+    }
+
+    public int getTypeCount(String type) throws RepositoryException {
+        ensureLoaded();
+        synchronized (this) {
+            Integer count = typeCounts.get(type);
+            return count == null ? 0 : count;
+        }
+    }
+
+    public int getCreatorCount(String createdBy) throws RepositoryException {
+        ensureLoaded();
+        synchronized (this) {
+            Integer count = creatorCounts.get(createdBy);
+            return count == null ? 0 : count;
+        }
+    }
+}
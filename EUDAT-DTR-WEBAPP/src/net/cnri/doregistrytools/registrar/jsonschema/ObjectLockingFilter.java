@@ -8,10 +8,6 @@
 package net.cnri.doregistrytools.registrar.jsonschema;
 
 import java.io.IOException;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -24,7 +20,7 @@ import javax.servlet.http.HttpServletResponse;
 
 public class ObjectLockingFilter implements Filter {
 
-    private ConcurrentHashMap<String, ReferenceCountedLock> locks;
+    private ObjectLocks locks;
     
     @Override
     public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain) throws IOException, ServletException {
@@ -40,7 +36,7 @@ public class ObjectLockingFilter implements Filter {
         String objectId = getObjectId(req);
         if (objectId != null) {
             if (req.getMethod().equalsIgnoreCase("PUT") || req.getMethod().equalsIgnoreCase("DELETE") || req.getMethod().equalsIgnoreCase("POST")) {
-                lock(objectId);
+                locks.lock(objectId);
                 isLocked = true;
             }
         }
@@ -48,48 +44,11 @@ public class ObjectLockingFilter implements Filter {
             chain.doFilter(req, resp);
         } finally {
             if (isLocked) {
-                unlock(objectId);             
+                locks.unlock(objectId);             
             }
         }
     }
     
-    private void lock(String objectId) {
-        ReferenceCountedLock existingLock = locks.get(objectId);
-        if (existingLock != null && getAndIncrementIfPositive(existingLock.count) > 0) {
-            existingLock.lock.lock();
-            return;
-        }
-        ReferenceCountedLock newLock = new ReferenceCountedLock();
-        while (true) {
-            existingLock = locks.putIfAbsent(objectId, newLock);
-            if (existingLock == null) {
-                newLock.lock.lock();
-                return;
-            }
-            if (getAndIncrementIfPositive(existingLock.count) > 0) {
-                existingLock.lock.lock();
-                return;
-            }
-        }
-    }
-    
-    private void unlock(String objectId) {
-        ReferenceCountedLock existingLock = locks.get(objectId);
-        if (existingLock.count.decrementAndGet() == 0) {
-            locks.remove(objectId);
-        }
-        existingLock.lock.unlock();
-    }
-    
-    private static int getAndIncrementIfPositive(AtomicInteger ai) {
-        while(true) {
-            int current = ai.get();
-            if(current<=0) return 0;
-            if(current==Integer.MAX_VALUE) throw new IllegalStateException("Integer overflow");
-            if(ai.compareAndSet(current, current+1)) return current;
-        }
-    }
-    
     private String getObjectId(HttpServletRequest req) {
         String objectId = req.getPathInfo();
         if (objectId != null && !objectId.isEmpty()) {
@@ -102,20 +61,10 @@ public class ObjectLockingFilter implements Filter {
 
     @Override
     public void init(FilterConfig filterConfig) throws ServletException {
-        locks = new ConcurrentHashMap<String, ReferenceCountedLock>();
+        locks = ObjectLocks.getInstance();
     }
     
     @Override
     public void destroy() {
     }
-
-    private static class ReferenceCountedLock {
-        Lock lock;
-        AtomicInteger count;
-        
-        public ReferenceCountedLock() {
-            lock = new ReentrantLock();
-            count = new AtomicInteger(1);
-        }
-    }
 }
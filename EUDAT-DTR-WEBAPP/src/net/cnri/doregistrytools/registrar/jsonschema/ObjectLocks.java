@@ -0,0 +1,72 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-object write locks, shared by {@link ObjectLockingFilter} and background jobs which rewrite objects.
+ */
+public class ObjectLocks {
+    private static final ObjectLocks INSTANCE = new ObjectLocks();
+
+    private final ConcurrentHashMap<String, ReferenceCountedLock> locks = new ConcurrentHashMap<String, ReferenceCountedLock>();
+    
+    public static ObjectLocks getInstance() {
+        return INSTANCE;
+    }
+    
+    public void lock(String objectId) {
+        ReferenceCountedLock existingLock = locks.get(objectId);
+        if (existingLock != null && getAndIncrementIfPositive(existingLock.count) > 0) {
+            existingLock.lock.lock();
+            return;
+        }
+        ReferenceCountedLock newLock = new ReferenceCountedLock();
+        while (true) {
+            existingLock = locks.putIfAbsent(objectId, newLock);
+            if (existingLock == null) {
+                newLock.lock.lock();
+                return;
+            }
+            if (getAndIncrementIfPositive(existingLock.count) > 0) {
+                existingLock.lock.lock();
+                return;
+            }
+        }
+    }
+    
+    public void unlock(String objectId) {
+        ReferenceCountedLock existingLock = locks.get(objectId);
+        if (existingLock.count.decrementAndGet() == 0) {
+            locks.remove(objectId);
+        }
+        existingLock.lock.unlock();
+    }
+    
+    private static int getAndIncrementIfPositive(AtomicInteger ai) {
+        while(true) {
+            int current = ai.get();
+            if(current<=0) return 0;
+            if(current==Integer.MAX_VALUE) throw new IllegalStateException("Integer overflow");
+            if(ai.compareAndSet(current, current+1)) return current;
+        }
+    }
+    
+    private static class ReferenceCountedLock {
+        Lock lock;
+        AtomicInteger count;
+        
+        public ReferenceCountedLock() {
+            lock = new ReentrantLock();
+            count = new AtomicInteger(1);
+        }
+    }
+}
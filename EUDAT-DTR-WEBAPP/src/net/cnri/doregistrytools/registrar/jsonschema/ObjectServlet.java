@@ -25,12 +25,12 @@ import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
-import net.cnri.doregistrytools.registrar.auth.QueryRestrictor;
 import net.cnri.repository.CreationException;
 import net.cnri.repository.DataElement;
 import net.cnri.repository.DigitalObject;
@@ -82,14 +82,22 @@ public class ObjectServlet extends HttpServlet {
         boolean isWantText = ServletUtil.getBooleanParameter(req, "text");
         boolean isFull = ServletUtil.getBooleanParameter(req, "full");
         boolean isWantXml = ServletUtil.getBooleanParameter(req, "xml");
+        boolean isPretty = ServletUtil.getBooleanParameter(req, "pretty");
+        List<String> filter;
+        try {
+            filter = getFilterParameter(req);
+        } catch (InvalidException e) {
+            ServletErrorUtil.badRequest(resp, e.getMessage());
+            return;
+        }
         
         if (payload != null) {
             doGetPayload(req, resp, objectId, payload);
         } else if (jsonPointer == null) {
             if (isFull) {
-                getObjectPlusMetadata(resp, objectId, isWantXml);
+                getObjectPlusMetadata(resp, objectId, isWantXml, filter);
             } else {
-                goGetWholeObject(resp, objectId, isWantText, isWantXml);
+                goGetWholeObject(resp, objectId, isWantText, isWantXml, isPretty, filter);
             }
         } else {
             if (JsonUtil.isValidJsonPointer(jsonPointer)) {
@@ -104,7 +112,7 @@ public class ObjectServlet extends HttpServlet {
         return "<unimplemented/>";
     }
 
-    private void getObjectPlusMetadata(HttpServletResponse resp, String objectId, boolean isWantXml) throws IOException {
+    private void getObjectPlusMetadata(HttpServletResponse resp, String objectId, boolean isWantXml, List<String> filter) throws IOException {
         try {
             DigitalObject dobj = registrar.getDigitalObject(objectId);
             String jsonData = dobj.getAttribute("json");
@@ -118,6 +126,12 @@ public class ObjectServlet extends HttpServlet {
             resp.setHeader("X-Schema", type);
             resp.setHeader("Origin", remoteRepository);
             
+            if (filter != null && !isWantXml) {
+                JsonGenerator generator = ContentPlusMetaWriter.createGenerator(resp.getWriter(), true);
+                ContentPlusMetaWriter.write(generator, dobj, false, filter);
+                generator.flush();
+                return;
+            }
             ContentPlusMeta contentPlusMeta = RegistrarService.createContentPlusMeta(dobj);
             String json = gson.toJson(contentPlusMeta);
             PrintWriter w = resp.getWriter();
@@ -135,7 +149,7 @@ public class ObjectServlet extends HttpServlet {
         } 
     }
     
-    private void goGetWholeObject(HttpServletResponse resp, String objectId, boolean isWantText, boolean isWantXml) throws IOException {
+    private void goGetWholeObject(HttpServletResponse resp, String objectId, boolean isWantText, boolean isWantXml, boolean isPretty, List<String> filter) throws IOException {
         try {
             DigitalObject dobj = registrar.getDigitalObject(objectId);
             String jsonData = dobj.getAttribute("json");
@@ -148,15 +162,22 @@ public class ObjectServlet extends HttpServlet {
             resp.setHeader("Location", StringUtils.encodeURLPath("/objects/" + dobj.getHandle()));
             resp.setHeader("X-Schema", type);
             resp.setHeader("Origin", remoteRepository);
+            if (filter != null && !isWantText) {
+                JsonNode projected = JsonUtil.project(JsonUtil.parseJson(jsonData), filter);
+                jsonData = isPretty ? JsonUtil.prettyPrintJson(projected) : JsonUtil.printJsonCompactly(projected);
+                isPretty = false;
+            }
             if (isWantText) {
                 JsonNode jsonNode = JsonUtil.parseJson(jsonData);
-                String mediaType = registrar.getMediaType(type, remoteRepository, jsonNode, "");
+                String mediaType = registrar.getMediaType(dobj, type, remoteRepository, jsonNode, "");
                 writeText(resp, jsonNode, mediaType);
             } else {
                 PrintWriter w = resp.getWriter();
                 if (isWantXml) {
                     String xml = jsonToXml(jsonData);
                     w.write(xml);  
+                } else if (isPretty) {
+                    w.write(JsonUtil.prettyPrintJson(JsonUtil.parseJson(jsonData)));
                 } else {
                     w.write(jsonData);                
                 }
@@ -307,15 +328,17 @@ public class ObjectServlet extends HttpServlet {
     
     private void doSearch(HttpServletRequest req, HttpServletResponse resp, String query) throws IOException {
         try {
-            registrar.ensureIndexUpToDate();
+            registrar.awaitIndexed(ServletUtil.getIndexGenerationToken(req));
             HttpSession session = req.getSession(false);
             String userId = null;
             if (session != null) {
                 userId = (String) session.getAttribute("userId"); 
             }
+            SearchLimits limits = SearchLimits.forUser(userId);
+            registrar.checkSearchLimits(query, limits);
             List<String> groupIds = registrar.getAclEnforcer().getGroupsForUser(userId);
             boolean excludeVersions = true;
-            String restrictedQuery = QueryRestrictor.restrict(query, userId, groupIds, registrar.getDesign().authConfig, registrar.getRemoteAuthConfigs(), excludeVersions);
+            String restrictedQuery = registrar.getAclEnforcer().restrictQuery(query, userId, groupIds, excludeVersions);
             String pageNumString = req.getParameter("pageNum");
             if (pageNumString == null) pageNumString = "0";
             String pageSizeString = req.getParameter("pageSize");
@@ -330,12 +353,32 @@ public class ObjectServlet extends HttpServlet {
                 ServletErrorUtil.badRequest(resp, e.getMessage());
                 return;
             }
+            List<String> filter = getFilterParameter(req);
+            FacetCounter facets = getFacetsParameter(req);
 //            SearchResults results = registrar.search(restrictedQuery, pageNum, pageSize, sortFieldsString);
 //            PrintWriter writer = resp.getWriter();
 //            gson.toJson(results, writer);
             
-            PrintWriter writer = resp.getWriter();
-            registrar.search(restrictedQuery, pageNum, pageSize, sortFieldsString, writer);
+            String cursor = req.getParameter("cursor");
+            if (isNdjsonRequested(req)) {
+                if (facets != null || cursor != null) {
+                    ServletErrorUtil.badRequest(resp, "NDJSON export does not support facets or cursor");
+                    return;
+                }
+                // the query has passed the limits checked above; an export has no time budget
+                resp.setContentType("application/x-ndjson");
+                registrar.exportNdjson(restrictedQuery, sortFieldsString, resp.getWriter(), filter);
+                return;
+            }
+            SearchOptions options = new SearchOptions(pageNum, pageSize, sortFieldsString);
+            options.cursor = cursor;
+            options.compact = "true".equals(req.getParameter("compact"));
+            options.filter = filter;
+            options.facets = facets;
+            options.limits = limits;
+            registrar.search(restrictedQuery, options, resp.getWriter());
+        } catch (InvalidException e) {
+            ServletErrorUtil.badRequest(resp, e.getMessage());
         } catch (RepositoryException e) {
             if (e.getMessage().contains("Parse failure")) {
                 ServletErrorUtil.badRequest(resp, "Query parse failure");
@@ -346,6 +389,42 @@ public class ObjectServlet extends HttpServlet {
         }
     }
     
+    /**
+     * The filter parameter is a comma-separated list of JSON pointers, and may be repeated.  Returns null if absent.
+     */
+    private static List<String> getFilterParameter(HttpServletRequest req) throws InvalidException {
+        String[] filterParams = req.getParameterValues("filter");
+        if (filterParams == null) return null;
+        List<String> filter = new ArrayList<String>();
+        for (String filterParam : filterParams) {
+            for (String pointer : filterParam.split(",")) {
+                pointer = pointer.trim();
+                if (!JsonUtil.isValidJsonPointer(pointer)) throw new InvalidException("Invalid JSON Pointer in filter " + pointer);
+                filter.add(pointer);
+            }
+        }
+        return filter;
+    }
+    
+    /**
+     * The facets parameter is a comma-separated list of attribute names (type, createdBy, ...) and JSON pointers.  Returns null if absent.
+     */
+    private static FacetCounter getFacetsParameter(HttpServletRequest req) throws InvalidException {
+        String facetsParam = req.getParameter("facets");
+        if (facetsParam == null || facetsParam.trim().isEmpty()) return null;
+        List<String> fields = new ArrayList<String>();
+        for (String field : facetsParam.split(",")) {
+            fields.add(field.trim());
+        }
+        return new FacetCounter(fields);
+    }
+    
+    private static boolean isNdjsonRequested(HttpServletRequest req) {
+        if (ServletUtil.getBooleanParameter(req, "ndjson")) return true;
+        String accept = req.getHeader("Accept");
+        return accept != null && accept.contains("application/x-ndjson");
+    }
+    
     @Override
     protected void doPut(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
         createOrUpdate(req, resp, false);
@@ -425,12 +504,15 @@ public class ObjectServlet extends HttpServlet {
             resp.setStatus(HttpServletResponse.SC_OK);
             resp.setHeader("Location", StringUtils.encodeURLPath("/objects/" + dobj.getHandle()));
             resp.setHeader("X-Schema", dobj.getAttribute("type"));
+            ServletUtil.setIndexGenerationHeader(resp, registrar);
             boolean isFull = ServletUtil.getBooleanParameter(req, "full");
             PrintWriter p = resp.getWriter();
             if (isFull) {
                 ContentPlusMeta contentPlusMeta = RegistrarService.createContentPlusMeta(dobj);
                 String contentPlusMetaJson = gson.toJson(contentPlusMeta);
                 p.write(contentPlusMetaJson);
+            } else if (ServletUtil.getBooleanParameter(req, "pretty")) {
+                p.write(JsonUtil.prettyPrintJson(JsonUtil.parseJson(dobj.getAttribute(JSON))));
             } else {
                 p.write(dobj.getAttribute(JSON));
             }
@@ -544,6 +626,7 @@ public class ObjectServlet extends HttpServlet {
         if (jsonPointer == null && payloadName == null) {
             try {
                 registrar.delete(objectId);
+                ServletUtil.setIndexGenerationHeader(resp, registrar);
             } catch (NoSuchDigitalObjectException e) {
                 ServletErrorUtil.notFound(resp, "Missing object");
             } catch (RepositoryException e) {
@@ -563,6 +646,7 @@ public class ObjectServlet extends HttpServlet {
                 if (payloadName != null) {
                     registrar.deletePayload(objectId, payloadName, userId);
                 }
+                ServletUtil.setIndexGenerationHeader(resp, registrar);
             } catch (NoSuchDigitalObjectException e) {
                 ServletErrorUtil.notFound(resp, "Missing object");
             } catch (RepositoryException e) {
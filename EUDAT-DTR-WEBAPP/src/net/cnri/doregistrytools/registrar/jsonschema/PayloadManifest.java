@@ -0,0 +1,62 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import net.cnri.repository.DataElement;
+import net.cnri.repository.DigitalObject;
+import net.cnri.repository.RepositoryException;
+
+/**
+ * The payload metadata of an object as one JSON array, which the indexer stores with each document so that
+ * search results can list payloads without the stored attributes of every data element being returned.  It is
+ * read as the attribute {@link #ATTRIBUTE} of a search result; objects indexed before it existed do not have it.
+ */
+public class PayloadManifest {
+    public static final String ATTRIBUTE = "payloadManifest";
+    public static final String FIELD = "objatt_" + ATTRIBUTE;
+
+    private static final Gson gson = new Gson();
+    private static final Type LIST_TYPE = new TypeToken<List<ContentPlusMeta.PayloadMetadata>>() { }.getType();
+
+    public static String toJson(List<ContentPlusMeta.PayloadMetadata> payloads) {
+        return gson.toJson(payloads, LIST_TYPE);
+    }
+
+    /**
+     * Returns the payloads of the object, from the manifest if it has one and otherwise from its data elements.
+     */
+    public static List<ContentPlusMeta.PayloadMetadata> getPayloads(DigitalObject dobj) throws RepositoryException {
+        String manifest = dobj.getAttribute(ATTRIBUTE);
+        if (manifest != null) {
+            try {
+                List<ContentPlusMeta.PayloadMetadata> payloads = gson.fromJson(manifest, LIST_TYPE);
+                if (payloads != null) return payloads;
+            } catch (JsonParseException e) {
+                // fall through to the data elements
+            }
+        }
+        List<ContentPlusMeta.PayloadMetadata> payloads = new ArrayList<ContentPlusMeta.PayloadMetadata>();
+        for (DataElement el : dobj.getDataElements()) {
+            ContentPlusMeta.PayloadMetadata payloadMetadata = new ContentPlusMeta.PayloadMetadata();
+            payloadMetadata.name = el.getName();
+            payloadMetadata.filename = el.getAttribute("filename");
+            payloadMetadata.mediaType = el.getAttribute("mimetype");
+            payloadMetadata.size = el.getSize();
+            payloads.add(payloadMetadata);
+        }
+        return payloads;
+    }
+}
@@ -0,0 +1,76 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.util.Collections;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Read-side memo of the pointer to subschema map of stored objects, so that GETs needing a media type or
+ * handle references do not validate the stored JSON again.  Entries are keyed by object id and modification
+ * time and remember the compiled schema they were computed against; a schema change makes them stale.
+ */
+public class PointerToSchemaMapCache {
+    public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+
+    private final long maximumSize;
+    private final Cache<String, Entry> cache;
+
+    private static class Entry {
+        final SchemaAndNode schema;
+        final Map<String, JsonNode> pointerToSchemaMap;
+
+        Entry(SchemaAndNode schema, Map<String, JsonNode> pointerToSchemaMap) {
+            this.schema = schema;
+            this.pointerToSchemaMap = pointerToSchemaMap;
+        }
+    }
+
+    public PointerToSchemaMapCache() {
+        this(Long.getLong("dtr.pointerMapCache.size", DEFAULT_MAXIMUM_SIZE).longValue());
+    }
+
+    public PointerToSchemaMapCache(long maximumSize) {
+        this.maximumSize = maximumSize;
+        this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    public Map<String, JsonNode> get(String objectId, String modified, SchemaAndNode schema) {
+        if (objectId == null || modified == null) return null;
+        Entry entry = cache.getIfPresent(key(objectId, modified));
+        if (entry == null) return null;
+        if (entry.schema != schema) {
+            cache.invalidate(key(objectId, modified));
+            return null;
+        }
+        return entry.pointerToSchemaMap;
+    }
+
+    public Map<String, JsonNode> put(String objectId, String modified, SchemaAndNode schema, Map<String, JsonNode> pointerToSchemaMap) {
+        Map<String, JsonNode> unmodifiable = Collections.unmodifiableMap(pointerToSchemaMap);
+        if (objectId != null && modified != null) {
+            cache.put(key(objectId, modified), new Entry(schema, unmodifiable));
+        }
+        return unmodifiable;
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    public CacheStatistics getStatistics() {
+        return CacheStatistics.of(cache, maximumSize);
+    }
+
+    private static String key(String objectId, String modified) {
+        return objectId + "\n" + modified;
+    }
+}
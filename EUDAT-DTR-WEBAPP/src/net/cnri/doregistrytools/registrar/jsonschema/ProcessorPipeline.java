@@ -0,0 +1,101 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * The write-time processors which apply to a schema, worked out once from its {@link KeywordPlan}.  Each stage
+ * knows the subschemas carrying its keyword and is given only the matching entries of the pointer to subschema
+ * map.  Schemas without a plan get {@link #ALL}, which runs every stage over the whole map.
+ */
+public class ProcessorPipeline {
+    public static final ProcessorPipeline ALL = new ProcessorPipeline(null, null, null, null);
+
+    // null means every entry of the pointer to subschema map is offered to the stage
+    private final Set<JsonNode> usernameSchemas;
+    private final Set<JsonNode> passwordSchemas;
+    private final Set<JsonNode> usersListSchemas;
+    private final Set<JsonNode> autoGeneratedFieldSchemas;
+
+    private ProcessorPipeline(Set<JsonNode> usernameSchemas, Set<JsonNode> passwordSchemas, Set<JsonNode> usersListSchemas, Set<JsonNode> autoGeneratedFieldSchemas) {
+        this.usernameSchemas = usernameSchemas;
+        this.passwordSchemas = passwordSchemas;
+        this.usersListSchemas = usersListSchemas;
+        this.autoGeneratedFieldSchemas = autoGeneratedFieldSchemas;
+    }
+
+    public static ProcessorPipeline forPlan(KeywordPlan keywordPlan) {
+        if (keywordPlan == null) return ALL;
+        Set<JsonNode> usernameSchemas = newIdentitySet();
+        Set<JsonNode> passwordSchemas = newIdentitySet();
+        Set<JsonNode> usersListSchemas = newIdentitySet();
+        Set<JsonNode> autoGeneratedFieldSchemas = newIdentitySet();
+        for (KeywordPlan.Keyword keyword : keywordPlan.getKeywords()) {
+            if (keyword.isUsername()) usernameSchemas.add(keyword.subSchema);
+            if (keyword.isPassword()) passwordSchemas.add(keyword.subSchema);
+            if (keyword.isUsersList()) usersListSchemas.add(keyword.subSchema);
+            if (keyword.autoGeneratedField != null) autoGeneratedFieldSchemas.add(keyword.subSchema);
+        }
+        return new ProcessorPipeline(usernameSchemas, passwordSchemas, usersListSchemas, autoGeneratedFieldSchemas);
+    }
+
+    private static Set<JsonNode> newIdentitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<JsonNode, Boolean>());
+    }
+
+    public boolean isEmpty() {
+        return !hasUsername() && !hasPassword() && !hasUsersList() && !hasAutoGeneratedFields();
+    }
+
+    public boolean hasUsername() {
+        return usernameSchemas == null || !usernameSchemas.isEmpty();
+    }
+
+    public boolean hasPassword() {
+        return passwordSchemas == null || !passwordSchemas.isEmpty();
+    }
+
+    public boolean hasUsersList() {
+        return usersListSchemas == null || !usersListSchemas.isEmpty();
+    }
+
+    public boolean hasAutoGeneratedFields() {
+        return autoGeneratedFieldSchemas == null || !autoGeneratedFieldSchemas.isEmpty();
+    }
+
+    public Map<String, JsonNode> usernamePointers(Map<String, JsonNode> pointerToSchemaMap) {
+        return select(pointerToSchemaMap, usernameSchemas);
+    }
+
+    public Map<String, JsonNode> passwordPointers(Map<String, JsonNode> pointerToSchemaMap) {
+        return select(pointerToSchemaMap, passwordSchemas);
+    }
+
+    public Map<String, JsonNode> usersListPointers(Map<String, JsonNode> pointerToSchemaMap) {
+        return select(pointerToSchemaMap, usersListSchemas);
+    }
+
+    public Map<String, JsonNode> autoGeneratedFieldPointers(Map<String, JsonNode> pointerToSchemaMap) {
+        return select(pointerToSchemaMap, autoGeneratedFieldSchemas);
+    }
+
+    private static Map<String, JsonNode> select(Map<String, JsonNode> pointerToSchemaMap, Set<JsonNode> subSchemas) {
+        if (subSchemas == null) return pointerToSchemaMap;
+        Map<String, JsonNode> result = new LinkedHashMap<String, JsonNode>();
+        for (Map.Entry<String, JsonNode> entry : pointerToSchemaMap.entrySet()) {
+            if (subSchemas.contains(entry.getValue())) result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+}
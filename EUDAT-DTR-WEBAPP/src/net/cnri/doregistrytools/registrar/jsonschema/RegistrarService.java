@@ -14,6 +14,9 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -23,11 +26,17 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -40,7 +49,6 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.stream.JsonReader;
-import com.google.gson.stream.JsonWriter;
 
 import net.cnri.doregistrytools.registrar.auth.AccessControlList;
 import net.cnri.doregistrytools.registrar.auth.AclEnforcer;
@@ -90,19 +98,47 @@ public class RegistrarService {
     final String serverPrefix;
     final RegistrarAuthenticator authenticator;
     final AclEnforcer aclEnforcer;
+    final ObjectCounters objectCounters;
     final DigitalObjectSchemaValidator validator;
     final HandleMinter handleMinter;
     final VersionManager versionManager;
+    final SchemaNameProcessor schemaNameProcessor;
+    final UsernameProcessor usernameProcessor;
+    final PasswordProcessor passwordProcessor = new PasswordProcessor();
+    final UsersListProcessor usersListProcessor = new UsersListProcessor();
+    final JsonAugmenter jsonAugmenter = new JsonAugmenter();
     HandleClient handleClient;
     static final Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
     final AuthenticationInfo authInfo;
     final AllHandlesUpdater handlesUpdater;
+    static final int NDJSON_FLUSH_INTERVAL = 100;
+    static final List<String> FILTERED_RESULT_FIELDS = Arrays.asList("objectid", "objatt_type", "objatt_json", "objatt_internal.created", "objatt_createdBy",
+            "objatt_internal.modified", "objatt_modifiedBy", "objatt_isVersion", "objatt_versionOf", "objatt_publishedBy", "objatt_publishedOn", "objatt_remoteRepository");
+    static final List<String> RESULT_FIELDS = withPayloadManifest(FILTERED_RESULT_FIELDS);
+    final JsonStorageMigrator jsonStorageMigrator = new JsonStorageMigrator();
+    final Reindexer reindexer = new Reindexer();
+    private final Set<String> pendingReindexTypes = new HashSet<String>();
+    // serializes changes to the known schemas, so that they can be compiled without holding the monitor
+    private final Object schemaLock = new Object();
+    private final ExecutorService schemaCompilePool = Executors.newFixedThreadPool(Math.max(1, Integer.getInteger("dtr.schemaCompile.parallelism", Runtime.getRuntime().availableProcessors())));
+    private boolean pendingReindexAll = false;
+    final SuggestIndex suggestIndex;
+    final boolean reindexOnIndexPolicyChange = !"false".equals(System.getProperty("dtr.index.reindexOnPolicyChange"));
+    final SearchResultCache searchResultCache = new SearchResultCache();
+    final IndexGenerations indexGenerations;
+    final boolean compactJsonStorage = Boolean.getBoolean("dtr.jsonStorage.compact");
+    private BulkValidator bulkValidator;
+    final PointerToSchemaMapCache pointerToSchemaMapCache = new PointerToSchemaMapCache();
+    private long designLoadMillis;
+    private long schemaCompileMillis;
 
     final JsonNode schemaSchemaNode;
-    final JsonSchema schemaSchema;
+    final SchemaAndNode schemaSchema;
 
     Design design;
     volatile Map<TypeAndRegistrar, SchemaAndNode> schemas;
+    volatile Map<String, TypeAndRegistrar> schemaKeys = Collections.emptyMap(); // schema object handle to the entry it defines
+    volatile IndexFieldTypes indexFieldTypes = IndexFieldTypes.EMPTY; // merged over all schemas, for the query parser
     Map<String, AuthConfig> remoteAuthConfigs;
     
     public RegistrarService(Repository repo, String serverPrefix) throws RepositoryException, InvalidException {
@@ -114,25 +150,34 @@ public class RegistrarService {
         this.serverPrefix = serverPrefix;
         this.authInfo = authInfo;
         this.authenticator = authenticator;
+        this.indexGenerations = new IndexGenerations(repo);
+        if (authenticator != null) authenticator.setIndexGenerations(indexGenerations);
         this.validator = new DigitalObjectSchemaValidator(repo);
         this.handleMinter = new HandleMinter(serverPrefix);
         this.aclEnforcer = new AclEnforcer(repo);
+        this.suggestIndex = new SuggestIndex(this, repo);
+        this.objectCounters = new ObjectCounters(repo);
         this.versionManager = new VersionManager(repo, handleMinter);
+        this.schemaNameProcessor = new SchemaNameProcessor(this);
+        this.usernameProcessor = new UsernameProcessor(repo);
         String schemaSchemaString = DefaultSchemasFactory.getSchemaSchema();
         this.schemaSchemaNode = JsonUtil.parseJson(schemaSchemaString);
         try {
-            this.schemaSchema = JsonUtil.parseJsonSchema(schemaSchemaNode);
+            this.schemaSchema = SchemaAndNode.compile(schemaSchemaNode);
         } catch (ProcessingException e) {
             throw new InternalException(e);
         }
         this.handlesUpdater = new AllHandlesUpdater();
         
+        long start = System.currentTimeMillis();
         markRepoObject();
         MigrationService.createDesignFromSchemasObjectIfNeeded(repo); //Migration from old object name
         MigrationService.updateDesignToVersionOneIfNeeded(repo, this.handleMinter);
         MigrationService.updateDesignToVersionTwoIfNeeded(repo);
+        long migrationMillis = System.currentTimeMillis() - start;
 
         loadPersistentMetadata();
+        start = System.currentTimeMillis();
         if (serverPrefix != null && authInfo != null) {
             if (design.handleMintingConfig.baseUri == null || design.handleMintingConfig.baseUri.isEmpty()) {
                 this.handleClient = null;
@@ -142,6 +187,8 @@ public class RegistrarService {
         } else {
             this.handleClient = null;
         }
+        long handleClientMillis = System.currentTimeMillis() - start;
+        logger.info("Startup timing: migration checks " + migrationMillis + "ms, design load " + designLoadMillis + "ms, schema compile " + schemaCompileMillis + "ms (" + (schemas.size() - 1) + " schemas), handle client init " + handleClientMillis + "ms");
     }
     
     private void markRepoObject() throws RepositoryException {
@@ -154,21 +201,24 @@ public class RegistrarService {
         }
     }
     
-    private JsonNode getJsonSchemaNodeFromSchemaDigitalObject(DigitalObject schemaObject) throws RepositoryException, InvalidException {
-        String jsonContent = schemaObject.getAttribute(JSON);
-        JsonNode node = JsonUtil.parseJson(jsonContent);
-        JsonNode schemaNode = JsonUtil.getJsonAtPointer("/schema", node);
-        return schemaNode;
-    }
-
-    private String getJsonSchemaNameFromSchemaDigitalObject(DigitalObject schemaObject) throws RepositoryException, InvalidException {
-        String jsonContent = schemaObject.getAttribute(JSON);
-        JsonNode node = JsonUtil.parseJson(jsonContent);
-        String name = JsonUtil.getJsonAtPointer("/name", node).asText();
-        return name;
+    public void loadPersistentMetadata() throws RepositoryException, InvalidException {
+        try {
+            synchronized (schemaLock) {
+                Collection<String> knownSchemaHandles = loadDesign();
+                long start = System.currentTimeMillis();
+                rebuildSchemasFromHandles(knownSchemaHandles);
+                schemaCompileMillis = System.currentTimeMillis() - start;
+            }
+        } catch (ProcessingException e) {
+            throw new InternalException(e);
+        }
+        startPendingReindex();
     }
     
-    public synchronized void loadPersistentMetadata() throws RepositoryException, InvalidException {
+    /**
+     * Loads the design object, returning the handles of the known schemas it lists.
+     */
+    private synchronized Collection<String> loadDesign() throws RepositoryException, InvalidException {
 
         boolean reloadUIConfig = Boolean.getBoolean("dtr.jsonschema.uiconfig.reload");
 
@@ -176,95 +226,98 @@ public class RegistrarService {
             logger.info("Rebuilding UI and reloading default schemas...");
         }
 
-        try {
-            DigitalObject designObject = getDesignDigitalObject();
-            if (designObject == null || reloadUIConfig) {
-                logger.info("Creating new design object.");
-                designObject = createNewDesignDigitalObject();
-            }
-                 
-            if (!"true".equals(designObject.getAttribute("meta"))) {
-                designObject.setAttribute("meta", "true");
+        long start = System.currentTimeMillis();
+        DigitalObject designObject = getDesignDigitalObject();
+        if (designObject == null || reloadUIConfig) {
+            logger.info("Creating new design object.");
+            designObject = createNewDesignDigitalObject();
+        }
+             
+        if (!"true".equals(designObject.getAttribute("meta"))) {
+            designObject.setAttribute("meta", "true");
+        }
+        if (designObject.getAttribute("uiConfig") == null || reloadUIConfig) {
+            designObject.setAttribute("uiConfig", defaultUiConfig);
+        }
+        if (designObject.getAttribute("authConfig") == null) {
+            AuthConfig defaultAuthConfig = AuthConfigFactory.getDefaultAuthConfig();
+            String defaultAuthConfigJson = gson.toJson(defaultAuthConfig);
+            designObject.setAttribute("authConfig", defaultAuthConfigJson);
+        }
+        
+        if (designObject.getAttribute("handleMintingConfig") == null) {
+            HandleMintingConfig defaultHandleMintingConfig = HandleMintingConfig.getDefaultConfig();
+            String defaultHandleMintingConfigJson = gson.toJson(defaultHandleMintingConfig);
+            designObject.setAttribute("handleMintingConfig", defaultHandleMintingConfigJson);
+        }
+        
+//        if (designObject.getAttribute("baseUri") != null) {
+//            String baseUri = designObject.getAttribute("baseUri");
+//            
+//        }
+        
+        
+        JsonNode uiConfig = null;
+        AuthConfig authConfig = null;
+        List<RemoteRepositoryInfo> remoteRepositories = new ArrayList<RemoteRepositoryInfo>();
+        List<ReplicationCredentials> replicationCredentials = new ArrayList<ReplicationCredentials>();
+        Map<String, String> atts = designObject.getAttributes();
+        
+        //String baseUri = null;
+        HandleMintingConfig handleMintingConfig = null;
+        
+        for (String key : atts.keySet()) {
+            if ("uiConfig".equals(key)) {
+                String uiConfigJson = designObject.getAttribute(key);
+                uiConfig = JsonUtil.parseJson(uiConfigJson);
+                continue;
             }
-            if (designObject.getAttribute("uiConfig") == null || reloadUIConfig) {
-                designObject.setAttribute("uiConfig", defaultUiConfig);
+            if ("authConfig".equals(key)) {
+                String authConfigJson = designObject.getAttribute(key);
+                authConfig = gson.fromJson(authConfigJson, AuthConfig.class);
+                continue;
             }
-            if (designObject.getAttribute("authConfig") == null) {
-                AuthConfig defaultAuthConfig = AuthConfigFactory.getDefaultAuthConfig();
-                String defaultAuthConfigJson = gson.toJson(defaultAuthConfig);
-                designObject.setAttribute("authConfig", defaultAuthConfigJson);
+            if ("baseUri".equals(key)) {
+                String baseUri = designObject.getAttribute(key);
+                //TODO migrate to handleMintingConfig
+                continue;
             }
-            
-            if (designObject.getAttribute("handleMintingConfig") == null) {
-                HandleMintingConfig defaultHandleMintingConfig = HandleMintingConfig.getDefaultConfig();
-                String defaultHandleMintingConfigJson = gson.toJson(defaultHandleMintingConfig);
-                designObject.setAttribute("handleMintingConfig", defaultHandleMintingConfigJson);
+            if ("handleMintingConfig".equals(key)) {
+                String handleMintingConfigJson = designObject.getAttribute(key);
+                handleMintingConfig = gson.fromJson(handleMintingConfigJson, HandleMintingConfig.class);
+                continue;
             }
-            
-//            if (designObject.getAttribute("baseUri") != null) {
-//                String baseUri = designObject.getAttribute("baseUri");
-//                
-//            }
-            
-            
-            JsonNode uiConfig = null;
-            AuthConfig authConfig = null;
-            List<RemoteRepositoryInfo> remoteRepositories = new ArrayList<RemoteRepositoryInfo>();
-            List<ReplicationCredentials> replicationCredentials = new ArrayList<ReplicationCredentials>();
-            Map<String, String> atts = designObject.getAttributes();
-            
-            //String baseUri = null;
-            HandleMintingConfig handleMintingConfig = null;
-            
-            for (String key : atts.keySet()) {
-                if ("uiConfig".equals(key)) {
-                    String uiConfigJson = designObject.getAttribute(key);
-                    uiConfig = JsonUtil.parseJson(uiConfigJson);
-                    continue;
-                }
-                if ("authConfig".equals(key)) {
-                    String authConfigJson = designObject.getAttribute(key);
-                    authConfig = gson.fromJson(authConfigJson, AuthConfig.class);
-                    continue;
-                }
-                if ("baseUri".equals(key)) {
-                    String baseUri = designObject.getAttribute(key);
-                    //TODO migrate to handleMintingConfig
-                    continue;
-                }
-                if ("handleMintingConfig".equals(key)) {
-                    String handleMintingConfigJson = designObject.getAttribute(key);
-                    handleMintingConfig = gson.fromJson(handleMintingConfigJson, HandleMintingConfig.class);
-                    continue;
-                }
-                if (key.startsWith("remoteRepositories")) {
-                    String remoteRepositoryInfoString = designObject.getAttribute(key);
-                    remoteRepositories = gson.fromJson(remoteRepositoryInfoString, new TypeToken<List<RemoteRepositoryInfo>>(){}.getType());
-                    for (RemoteRepositoryInfo remoteRepository : remoteRepositories) {
-                        remoteRepository.baseUri = trimTrailingSlash(remoteRepository.baseUri);
-                    }
-                    continue;
-                }
-                if (key.startsWith("replicationCredentials")) {
-                    String replicationCredentialsString = designObject.getAttribute(key);
-                    replicationCredentials = gson.fromJson(replicationCredentialsString, new TypeToken<List<ReplicationCredentials>>(){}.getType());
-                    continue;
+            if (key.startsWith("remoteRepositories")) {
+                String remoteRepositoryInfoString = designObject.getAttribute(key);
+                remoteRepositories = gson.fromJson(remoteRepositoryInfoString, new TypeToken<List<RemoteRepositoryInfo>>(){}.getType());
+                for (RemoteRepositoryInfo remoteRepository : remoteRepositories) {
+                    remoteRepository.baseUri = trimTrailingSlash(remoteRepository.baseUri);
                 }
+                continue;
+            }
+            if (key.startsWith("replicationCredentials")) {
+                String replicationCredentialsString = designObject.getAttribute(key);
+                replicationCredentials = gson.fromJson(replicationCredentialsString, new TypeToken<List<ReplicationCredentials>>(){}.getType());
+                continue;
             }
-            Map<String, AuthConfig> remoteAuthConfigs = new HashMap<String, AuthConfig>();
-            loadRemoteAuthConfigs(remoteRepositories, remoteAuthConfigs);
+        }
+        Map<String, AuthConfig> remoteAuthConfigs = new HashMap<String, AuthConfig>();
+        loadRemoteAuthConfigs(remoteRepositories, remoteAuthConfigs);
+        Design oldDesign = this.design;
+        if (oldDesign == null) {
             this.design = new Design(null, uiConfig, serverPrefix, remoteRepositories, replicationCredentials, null, authConfig, handleMintingConfig, null);
+        } else {
+            // the schemas stay as they are until the rebuild which follows publishes new ones
+            this.design = new Design(oldDesign.schemas, uiConfig, serverPrefix, remoteRepositories, replicationCredentials, oldDesign.alienSchemas, authConfig, handleMintingConfig, oldDesign.schemaIds);
+        }
 
-            Map<String, String> knownSchemaIds = getKnownSchemaIdsFromDesignObject(designObject);
-            List<DigitalObject> knownSchemaObjects = objectListFromHandleList(knownSchemaIds.keySet());
-            rebuildSchemasFromListOfObjects(knownSchemaObjects);
+        this.remoteAuthConfigs = remoteAuthConfigs;
+        aclEnforcer.setAuthConfig(authConfig);
+        aclEnforcer.setRemoteAuthConfigs(remoteAuthConfigs);
 
-            this.remoteAuthConfigs = remoteAuthConfigs;
-            aclEnforcer.setAuthConfig(authConfig);
-            aclEnforcer.setRemoteAuthConfigs(remoteAuthConfigs);
-        } catch (ProcessingException e) {
-            throw new InternalException(e);
-        }
+        Map<String, String> knownSchemaIds = getKnownSchemaIdsFromDesignObject(designObject);
+        designLoadMillis = System.currentTimeMillis() - start;
+        return knownSchemaIds.keySet();
     }
 
     private Map<String, String> getKnownSchemaIdsFromDesignObject(DigitalObject designObject) throws RepositoryException {
@@ -278,16 +331,8 @@ public class RegistrarService {
         return knownSchemaIds;
     }
 
-    private List<DigitalObject> objectListFromHandleList(Collection<String> knownSchemaHandles) throws RepositoryException {
-        List<DigitalObject> knownSchemaObjects = new ArrayList<DigitalObject>();
-        for (String schemaHandle : knownSchemaHandles) {
-            knownSchemaObjects.add(getDigitalObject(schemaHandle));
-        }
-        return knownSchemaObjects;
-    }
-    
-    public synchronized void updateKnownSchemasBySearch() throws RepositoryException, InvalidException, ProcessingException {
-        ((NetworkedRepository) repo).ensureIndexUpToDate();
+    public void updateKnownSchemasBySearch() throws RepositoryException, InvalidException, ProcessingException {
+        indexGenerations.awaitAllIndexed();
         DigitalObject designObject = this.getDesignDigitalObject();
         Map<String, String> knownSchemaIds = getKnownSchemaIdsFromDesignObject(designObject);
         List<String> knownSchemaHandles = new ArrayList<String>(knownSchemaIds.keySet());
@@ -303,36 +348,197 @@ public class RegistrarService {
         } finally {
             schemasIter.close();
         }
-        List<DigitalObject> knownSchemaObjects = objectListFromHandleList(knownSchemaHandles);
-        rebuildSchemasFromListOfObjects(knownSchemaObjects);
+        rebuildSchemasFromHandles(knownSchemaHandles);
+        startPendingReindex();
     }
     
-    private synchronized void rebuildSchemasFromListOfObjects(List<DigitalObject> objects) throws RepositoryException, InvalidException, ProcessingException {
-        Map<String, String> schemaIds = new ConcurrentHashMap<String, String>();
-        Map<TypeAndRegistrar, SchemaAndNode> schemas = new ConcurrentHashMap<TypeAndRegistrar, SchemaAndNode>();
-        schemas.put(new TypeAndRegistrar("Schema", null), new SchemaAndNode(schemaSchema, schemaSchemaNode));
-        List<String> schemaHandles = new ArrayList<String>();
-        Map<String, JsonNode> schemaNodes = new HashMap<String, JsonNode>();
-        for (DigitalObject schemaObject : objects) {
-            String schemaHandle = schemaObject.getHandle();
-            schemaHandles.add(schemaHandle);
-            JsonNode schemaNode = getJsonSchemaNodeFromSchemaDigitalObject(schemaObject);
-            JsonSchema schema = JsonUtil.parseJsonSchema(schemaNode);
-            String type = getJsonSchemaNameFromSchemaDigitalObject(schemaObject);
-            String remoteRegistrar = schemaObject.getAttribute(REMOTE_REGISTRAR);
-            schemas.put(new TypeAndRegistrar(type, remoteRegistrar), new SchemaAndNode(schema, schemaNode));
-            schemaIds.put(schemaHandle, type);
-            if (remoteRegistrar == null) {
-                schemaNodes.put(type, schemaNode);
+    private static class CompiledSchema {
+        String handle;
+        TypeAndRegistrar key;
+        SchemaAndNode schema;
+    }
+    
+    /**
+     * Loads and compiles the given schema objects in parallel, then replaces all known schemas.  Where names
+     * collide the schema later in the iteration order of schemaHandles wins.  Compiling holds only the schemaLock;
+     * the RegistrarService monitor is held for the swap.
+     */
+    private void rebuildSchemasFromHandles(Collection<String> schemaHandles) throws RepositoryException, InvalidException, ProcessingException {
+        synchronized (schemaLock) {
+            List<CompiledSchema> compiled = loadAndCompileSchemas(schemaHandles);
+            Map<TypeAndRegistrar, SchemaAndNode> schemas = new ConcurrentHashMap<TypeAndRegistrar, SchemaAndNode>();
+            Map<String, TypeAndRegistrar> schemaKeys = new HashMap<String, TypeAndRegistrar>();
+            schemas.put(new TypeAndRegistrar("Schema", null), schemaSchema);
+            for (CompiledSchema compiledSchema : compiled) {
+                String otherHandle = otherHandleForKey(schemaKeys, compiledSchema.key, compiledSchema.handle);
+                if (otherHandle != null) {
+                    logger.warn("Schema " + compiledSchema.handle + " has the same name as " + otherHandle + "; using " + compiledSchema.handle + " for type " + compiledSchema.key.type);
+                }
+                schemas.put(compiledSchema.key, compiledSchema.schema);
+                schemaKeys.put(compiledSchema.handle, compiledSchema.key);
             }
+            publishSchemas(schemas, schemaKeys);
+        }
+    }
+    
+    private List<CompiledSchema> loadAndCompileSchemas(Collection<String> schemaHandles) throws RepositoryException, InvalidException, ProcessingException {
+        List<Callable<CompiledSchema>> tasks = new ArrayList<Callable<CompiledSchema>>(schemaHandles.size());
+        for (final String schemaHandle : schemaHandles) {
+            tasks.add(new Callable<CompiledSchema>() {
+                public CompiledSchema call() throws Exception {
+                    return loadAndCompileSchema(schemaHandle);
+                }
+            });
+        }
+        List<CompiledSchema> result = new ArrayList<CompiledSchema>(tasks.size());
+        if (tasks.isEmpty()) return result;
+        try {
+            for (Future<CompiledSchema> future : schemaCompilePool.invokeAll(tasks)) {
+                result.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RepositoryException) throw (RepositoryException) cause;
+            if (cause instanceof InvalidException) throw (InvalidException) cause;
+            if (cause instanceof ProcessingException) throw (ProcessingException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new InternalException(cause);
+        }
+        return result;
+    }
+    
+    private CompiledSchema loadAndCompileSchema(String schemaHandle) throws RepositoryException, InvalidException, ProcessingException {
+        DigitalObject schemaObject = getDigitalObject(schemaHandle);
+        Map<String, String> atts = schemaObject.getAttributes();
+        String json = atts.get(JSON);
+        if (json == null) throw new InvalidException("Missing JSON attribute on " + schemaHandle);
+        CompiledSchema result = new CompiledSchema();
+        result.handle = schemaHandle;
+        JsonNode node = JsonUtil.parseJson(json);
+        JsonNode schemaNode = JsonUtil.getJsonAtPointer("/schema", node);
+        String type = JsonUtil.getJsonAtPointer("/name", node).asText();
+        result.key = new TypeAndRegistrar(type, atts.get(REMOTE_REGISTRAR));
+        result.schema = SchemaAndNode.compile(schemaNode);
+        return result;
+    }
+    
+    /**
+     * Replaces the single entry for the given schema object, recompiling only that schema.  The new map is
+     * built from a copy of the current one and swapped in; the RegistrarService monitor is held only for the swap.
+     */
+    private void putKnownSchema(DigitalObject schemaObject) throws RepositoryException, InvalidException, ProcessingException {
+        synchronized (schemaLock) {
+            putKnownSchemaLocked(schemaObject);
+        }
+    }
+    
+    private void putKnownSchemaLocked(DigitalObject schemaObject) throws RepositoryException, InvalidException, ProcessingException {
+        String schemaHandle = schemaObject.getHandle();
+        while (true) {
+            String json = schemaObject.getAttribute(JSON);
+            if (json == null) throw new InvalidException("Missing JSON attribute on " + schemaHandle);
+            JsonNode node = JsonUtil.parseJson(json);
+            JsonNode schemaNode = JsonUtil.getJsonAtPointer("/schema", node);
+            String type = JsonUtil.getJsonAtPointer("/name", node).asText();
+            SchemaAndNode schema = SchemaAndNode.compile(schemaNode);
+            TypeAndRegistrar key = new TypeAndRegistrar(type, schemaObject.getAttribute(REMOTE_REGISTRAR));
+            synchronized (this) {
+                if (!json.equals(schemaObject.getAttribute(JSON))) {
+                    continue; // changed while compiling; recompile the latest
+                }
+                Map<TypeAndRegistrar, SchemaAndNode> newSchemas = new ConcurrentHashMap<TypeAndRegistrar, SchemaAndNode>(schemas);
+                Map<String, TypeAndRegistrar> newSchemaKeys = new HashMap<String, TypeAndRegistrar>(schemaKeys);
+                String otherHandle = otherHandleForKey(newSchemaKeys, key, schemaHandle);
+                if (otherHandle != null) {
+                    // both stay in schemaKeys, so removing either one rebuilds from the other
+                    logger.warn("Schema " + schemaHandle + " has the same name as " + otherHandle + "; using " + schemaHandle + " for type " + key.type);
+                }
+                TypeAndRegistrar oldKey = newSchemaKeys.put(schemaHandle, key);
+                if (oldKey != null && !oldKey.equals(key) && !newSchemaKeys.containsValue(oldKey)) {
+                    newSchemas.remove(oldKey);
+                }
+                newSchemas.put(key, schema);
+                publishSchemas(newSchemas, newSchemaKeys);
+                return;
+            }
+        }
+    }
+    
+    private static String otherHandleForKey(Map<String, TypeAndRegistrar> schemaKeys, TypeAndRegistrar key, String schemaHandle) {
+        for (Map.Entry<String, TypeAndRegistrar> entry : schemaKeys.entrySet()) {
+            if (key.equals(entry.getValue()) && !schemaHandle.equals(entry.getKey())) return entry.getKey();
+        }
+        return null;
+    }
+    
+    private void removeKnownSchema(String schemaHandle) throws RepositoryException, InvalidException, ProcessingException {
+        synchronized (schemaLock) {
+            removeKnownSchemaLocked(schemaHandle);
+        }
+    }
+    
+    private void removeKnownSchemaLocked(String schemaHandle) throws RepositoryException, InvalidException, ProcessingException {
+        if (!schemaKeys.containsKey(schemaHandle)) return;
+        Map<String, TypeAndRegistrar> newSchemaKeys = new HashMap<String, TypeAndRegistrar>(schemaKeys);
+        TypeAndRegistrar oldKey = newSchemaKeys.remove(schemaHandle);
+        if (newSchemaKeys.containsValue(oldKey)) {
+            // another schema object claims the same name; let a full rebuild decide which one wins
+            rebuildSchemasFromHandles(newSchemaKeys.keySet());
+            return;
+        }
+        Map<TypeAndRegistrar, SchemaAndNode> newSchemas = new ConcurrentHashMap<TypeAndRegistrar, SchemaAndNode>(schemas);
+        newSchemas.remove(oldKey);
+        publishSchemas(newSchemas, newSchemaKeys);
+    }
+    
+    /**
+     * Starts reindexing the types, or all objects, whose indexing changed with the schemas published since the
+     * last call.  Called by the public entry points once they no longer hold the RegistrarService monitor.
+     */
+    private void startPendingReindex() {
+        Set<String> types;
+        synchronized (this) {
+            if (pendingReindexAll) {
+                types = null;
+            } else if (!pendingReindexTypes.isEmpty()) {
+                types = new HashSet<String>(pendingReindexTypes);
+            } else {
+                return;
+            }
+            pendingReindexAll = false;
+            pendingReindexTypes.clear();
+        }
+        reindexer.reindex(this, repo, types);
+    }
+    
+    private synchronized void publishSchemas(Map<TypeAndRegistrar, SchemaAndNode> newSchemas, Map<String, TypeAndRegistrar> newSchemaKeys) throws RepositoryException {
+        Map<String, String> schemaIds = new ConcurrentHashMap<String, String>();
+        for (Map.Entry<String, TypeAndRegistrar> entry : newSchemaKeys.entrySet()) {
+            schemaIds.put(entry.getKey(), entry.getValue().type);
+        }
+        Map<TypeAndRegistrar, SchemaAndNode> oldSchemas = this.schemas;
+        IndexFieldTypes oldIndexFieldTypes = this.indexFieldTypes;
+        this.schemas = newSchemas;
+        this.schemaKeys = newSchemaKeys;
+        this.indexFieldTypes = IndexFieldTypes.merge(newSchemas.values());
+        if (oldSchemas != null && reindexOnIndexPolicyChange) {
+            Set<String> changedTypes = getTypesWithChangedIndexing(oldSchemas, newSchemas);
+            pendingReindexTypes.addAll(changedTypes);
+            // sort fields are encoded by the merged types, in objects of every type
+            if (indexFieldTypes.hasChangedKinds(oldIndexFieldTypes)) pendingReindexAll = true;
         }
-        this.schemas = schemas;
         design.schemas = getSchemaNodes();
         design.alienSchemas = getAlienSchemaNodes();
+        Map<String, String> oldSchemaIds = design.schemaIds;
         design.schemaIds = schemaIds;
-        String schemaIdsJson = gson.toJson(schemaIds);
-        DigitalObject designObject = getDesignDigitalObject();
-        designObject.setAttribute(SCHEMAS, schemaIdsJson);
+        if (!schemaIds.equals(oldSchemaIds)) {
+            String schemaIdsJson = gson.toJson(schemaIds);
+            DigitalObject designObject = getDesignDigitalObject();
+            designObject.setAttribute(SCHEMAS, schemaIdsJson);
+        }
     }
     
     public static String getDefaultUiConfig() {
@@ -471,6 +677,17 @@ public class RegistrarService {
         return aclEnforcer;
     }
     
+    public SuggestIndex getSuggestIndex() {
+        return suggestIndex;
+    }
+
+    /**
+     * Throws InvalidException if a user's query is too costly under the given limits, counting term expansion in the index.
+     */
+    public void checkSearchLimits(String query, SearchLimits limits) throws InvalidException {
+        limits.checkQuery(query, repo);
+    }
+    
     public boolean isKnownType(String type, String remoteRepository) {
         if ("Schema".equals(type)) {
             return true;
@@ -478,6 +695,10 @@ public class RegistrarService {
         return schemas.containsKey(new TypeAndRegistrar(type, remoteRepository));
     }
 
+    public IndexFieldTypes getIndexFieldTypes() {
+        return indexFieldTypes;
+    }
+    
     public SchemaAndNode getSchema(String type, String remoteRepository) {
         if ("Schema".equals(type)) {
             return schemas.get(new TypeAndRegistrar("Schema", null));
@@ -744,7 +965,7 @@ public class RegistrarService {
         String jsonData = dobj.getAttribute(JSON);
         if (jsonData == null) throw new InternalException("Missing JSON attribute on " + objectId);
         JsonNode dataNode = JsonUtil.parseJson(jsonData);
-        String mediaType = getMediaType(type, remoteRepository, dataNode, jsonPointer);
+        String mediaType = getMediaType(dobj, type, remoteRepository, dataNode, jsonPointer);
         DataElement el = dobj.getDataElement(jsonPointer);
         if (el != null) {
             if (mediaType == null) {
@@ -809,7 +1030,7 @@ public class RegistrarService {
             throw new InternalException("Object not valid for deletion: " + objectId);
         } else {
             String type = dobj.getAttribute(TYPE);
-            repo.deleteDigitalObject(objectId);
+            deleteAndForget(dobj, type, dobj.getAttribute(AccessControlList.CREATED_BY_ATTRIBUTE));
             if ("Schema".equals(type)) {
                 deleteFromKnownSchemas(objectId);
             }
@@ -856,6 +1077,7 @@ public class RegistrarService {
         String existingJsonData = dobj.getAttribute(JSON);
         List<String> payloadsToDelete = Collections.singletonList(payloadName);
         updateDigitalObject(dobj, type, existingJsonData, payloadsToDelete, null, userId);
+        noteWrite();
     }
     
     public DigitalObject writeJsonAndPayloadsIntoDigitalObjectIfValidAsUpdate(String objectId, String jsonData, List<Payload> newPayloads, String userId, Collection<String> payloadsToDelete) throws RepositoryException, InvalidException {
@@ -874,12 +1096,13 @@ public class RegistrarService {
             throw new InvalidException("Unknown type " + type);
         }
         JsonNode jsonNode = JsonUtil.parseJson(jsonData);
-        Map<String, JsonNode> pointerToSchemaMap = validator.schemaValidateAndReturnKeywordsMap(jsonNode, schema.schemaNode, schema.schema);
+        Map<String, JsonNode> pointerToSchemaMap = validator.schemaValidateAndReturnKeywordsMap(jsonNode, schema);
         validator.postSchemaValidate(jsonNode, pointerToSchemaMap);
         validator.validatePayloads(newPayloads);
-        processObjectBasedOnJsonAndType(dobj, type, jsonNode, pointerToSchemaMap, userId);
-        jsonData = JsonUtil.prettyPrintJson(jsonNode);
+        processObjectBasedOnJsonAndType(dobj, type, schema, jsonNode, pointerToSchemaMap, userId);
+        jsonData = serializeJsonForStorage(jsonNode);
         updateDigitalObject(dobj, type, jsonData, payloadsToDelete, newPayloads, userId);
+        noteWrite();
         if ("Schema".equals(type)) {
             addToKnownSchemas(dobj.getHandle(), true);
         }
@@ -894,31 +1117,102 @@ public class RegistrarService {
         return dobj;
     }
     
+    /**
+     * The form in which object JSON is stored: compact if dtr.jsonStorage.compact is set, otherwise pretty-printed.
+     */
+    public String serializeJsonForStorage(JsonNode jsonNode) throws RepositoryException {
+        if (compactJsonStorage) {
+            return JsonUtil.printJsonCompactly(jsonNode);
+        } else {
+            return JsonUtil.prettyPrintJson(jsonNode);
+        }
+    }
+    
+    /**
+     * Rewrites the stored json of the objects of the given types in the configured storage form, in the background.
+     */
+    /**
+     * Returns false, starting nothing, if a migration is already running.
+     */
+    public boolean migrateJsonStorage(Collection<String> types) {
+        return jsonStorageMigrator.migrate(this, repo, types);
+    }
+    
+    public JsonStorageMigrator.MigrationStatus getJsonStorageMigrationStatus() {
+        return jsonStorageMigrator.getStatus();
+    }
+    
+    /**
+     * Reindexes the objects of the given types, or all objects if types is null, in the background.
+     */
+    public void reindex(Collection<String> types) {
+        reindexer.reindex(this, repo, types);
+    }
+    
+    public Reindexer.ReindexStatus getReindexStatus() {
+        return reindexer.getStatus();
+    }
+    
+    private static Set<String> getTypesWithChangedIndexing(Map<TypeAndRegistrar, SchemaAndNode> oldSchemas, Map<TypeAndRegistrar, SchemaAndNode> newSchemas) {
+        Set<String> result = new HashSet<String>();
+        for (Map.Entry<TypeAndRegistrar, SchemaAndNode> entry : newSchemas.entrySet()) {
+            SchemaAndNode oldSchema = oldSchemas.get(entry.getKey());
+            if (oldSchema == null || oldSchema == entry.getValue()) continue;
+            SchemaAndNode newSchema = entry.getValue();
+            if (!equal(oldSchema.indexPolicy, newSchema.indexPolicy) || !equal(oldSchema.indexFieldTypes, newSchema.indexFieldTypes)) {
+                result.add(entry.getKey().type);
+            }
+        }
+        return result;
+    }
+    
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+    
     public SchemaAndNode getSchemaAndNode(String type, String remoteRepository) {
         SchemaAndNode schema = schemas.get(new TypeAndRegistrar(type, null));
         return schema;
     }
     
+    /**
+     * Deletes the object from the repository and drops what the registry keeps about it elsewhere: its cached type,
+     * suggestions, group memberships and counts.  The object must have been counted as added.
+     */
+    private void deleteAndForget(DigitalObject dobj, String type, String createdBy) throws RepositoryException {
+        String objectId = dobj.getHandle();
+        // invalidate on both sides, so a lookup racing the delete cannot leave the type cached
+        validator.invalidateHandleType(objectId);
+        repo.deleteDigitalObject(objectId);
+        validator.invalidateHandleType(objectId);
+        noteWrite();
+        suggestIndex.objectRemoved(objectId);
+        aclEnforcer.removeGroupMembership(objectId);
+        objectCounters.objectDeleted(type, createdBy);
+    }
+
     public DigitalObject writeJsonAndPayloadsIntoDigitalObjectIfValid(String type, String jsonData, List<Payload> payloads, String handle, String creatorId) throws RepositoryException, InvalidException {
         SchemaAndNode schema = schemas.get(new TypeAndRegistrar(type, null));
         if (schema == null) {
             throw new InvalidException("Unknown type " + type);
         }
         JsonNode jsonNode = JsonUtil.parseJson(jsonData);
-        Map<String, JsonNode> pointerToSchemaMap = validator.schemaValidateAndReturnKeywordsMap(jsonNode, schema.schemaNode, schema.schema);
+        Map<String, JsonNode> pointerToSchemaMap = validator.schemaValidateAndReturnKeywordsMap(jsonNode, schema);
         validator.postSchemaValidate(jsonNode, pointerToSchemaMap);
         validator.validatePayloads(payloads);
-        preprocessObjectBasedOnJsonAndType(null, type, jsonNode, pointerToSchemaMap, creatorId);
+        preprocessObjectBasedOnJsonAndType(null, type, schema, jsonNode, pointerToSchemaMap, creatorId);
         DigitalObject dobj = createNewDigitalObject(jsonNode, pointerToSchemaMap, handle, creatorId);
-        processObjectBasedOnJsonAndType(dobj, type, jsonNode, pointerToSchemaMap, creatorId);
-        jsonData = JsonUtil.prettyPrintJson(jsonNode);
+        processObjectBasedOnJsonAndType(dobj, type, schema, jsonNode, pointerToSchemaMap, creatorId);
+        jsonData = serializeJsonForStorage(jsonNode);
         updateDigitalObject(dobj, type, jsonData, Collections.<String>emptyList(), payloads, creatorId);
+        noteWrite();
+        objectCounters.objectAdded(type, creatorId == null ? "anonymous" : creatorId);
         if (handleClient != null) {
             try {
                 handleClient.registerHandle(dobj.getHandle(), dobj, type, jsonNode);
             } catch (HandleException e) {
                 try {
-                    dobj.delete();
+                    deleteAndForget(dobj, type, creatorId == null ? "anonymous" : creatorId);
                 } catch (RepositoryException ex) {
                     logger.error("Failure to delete new object after failure to register handle " + dobj.getHandle() + ", out of sync", e);
                 }
@@ -935,60 +1229,49 @@ public class RegistrarService {
         handlesUpdater.updateAllHandles(handleClient, repo);
     }
     
-    private void preprocessObjectBasedOnJsonAndType(String handle, String type, JsonNode jsonNode, Map<String, JsonNode> pointerToSchemaMap, String creatorId) throws RepositoryException, InvalidException {
-        SchemaNameProcessor schemaNameProcessor = new SchemaNameProcessor(this);
+    private void preprocessObjectBasedOnJsonAndType(String handle, String type, SchemaAndNode schema, JsonNode jsonNode, Map<String, JsonNode> pointerToSchemaMap, String creatorId) throws RepositoryException, InvalidException {
         schemaNameProcessor.preprocess(type, handle, jsonNode);
-        UsernameProcessor usernameProcessor = new UsernameProcessor(repo);
-        usernameProcessor.preprocess(handle, jsonNode, pointerToSchemaMap);
-        PasswordProcessor passwordProcessor = new PasswordProcessor();
-        passwordProcessor.preprocess(jsonNode, pointerToSchemaMap);
+        ProcessorPipeline pipeline = schema.processorPipeline;
+        if (pipeline.isEmpty()) return;
+        if (pipeline.hasUsername()) usernameProcessor.preprocess(handle, jsonNode, pipeline.usernamePointers(pointerToSchemaMap));
+        if (pipeline.hasPassword()) passwordProcessor.preprocess(jsonNode, pipeline.passwordPointers(pointerToSchemaMap));
     }
     
-    private void processObjectBasedOnJsonAndType(DigitalObject dobj, String type, JsonNode jsonNode, Map<String, JsonNode> pointerToSchemaMap, String creatorId) throws RepositoryException, InvalidException {
-        SchemaNameProcessor schemaNameProcessor = new SchemaNameProcessor(this);
+    private void processObjectBasedOnJsonAndType(DigitalObject dobj, String type, SchemaAndNode schema, JsonNode jsonNode, Map<String, JsonNode> pointerToSchemaMap, String creatorId) throws RepositoryException, InvalidException {
         schemaNameProcessor.process(type, dobj, jsonNode);
-        UsernameProcessor usernameProcessor = new UsernameProcessor(repo);
-        usernameProcessor.process(dobj, jsonNode, pointerToSchemaMap);
-        PasswordProcessor passwordProcessor = new PasswordProcessor();
-        passwordProcessor.process(dobj, jsonNode, pointerToSchemaMap);
-        UsersListProcessor usersListProcessor = new UsersListProcessor();
-        usersListProcessor.process(dobj, jsonNode, pointerToSchemaMap);
-        JsonAugmenter jsonAugmenter = new JsonAugmenter(); 
-        jsonAugmenter.augment(dobj, jsonNode, pointerToSchemaMap, creatorId);
+        ProcessorPipeline pipeline = schema.processorPipeline;
+        if (pipeline.isEmpty()) return;
+        if (pipeline.hasUsername()) usernameProcessor.process(dobj, jsonNode, pipeline.usernamePointers(pointerToSchemaMap));
+        if (pipeline.hasPassword()) passwordProcessor.process(dobj, jsonNode, pipeline.passwordPointers(pointerToSchemaMap));
+        if (pipeline.hasUsersList()) {
+            String users = usersListProcessor.process(dobj, jsonNode, pipeline.usersListPointers(pointerToSchemaMap));
+            if (users != null) aclEnforcer.updateGroupMembership(dobj.getHandle(), users);
+        }
+        if (pipeline.hasAutoGeneratedFields()) jsonAugmenter.augment(dobj, jsonNode, pipeline.autoGeneratedFieldPointers(pointerToSchemaMap), creatorId);
     }
     
-    private synchronized void addToKnownSchemas(String handle, boolean update) throws RepositoryException {
-        DigitalObject designObject = this.getDesignDigitalObject();
-        Map<String, String> knownSchemaIds = getKnownSchemaIdsFromDesignObject(designObject);
-        List<String> knownSchemaHandles = new ArrayList<String>(knownSchemaIds.keySet());
-        if (!knownSchemaHandles.contains(handle) || update) {
-            if (!knownSchemaHandles.contains(handle)) knownSchemaHandles.add(handle);
-            List<DigitalObject> knownSchemaObjects = objectListFromHandleList(knownSchemaHandles);
-            try {
-                rebuildSchemasFromListOfObjects(knownSchemaObjects);
-            } catch (InvalidException e) {
-                throw new InternalException(e.getMessage());
-            } catch (ProcessingException e) {
-                throw new InternalException(e.getMessage());
-            }
+    private void addToKnownSchemas(String handle, boolean update) throws RepositoryException {
+        if (schemaKeys.containsKey(handle) && !update) return;
+        DigitalObject schemaObject = getDigitalObject(handle);
+        try {
+            putKnownSchema(schemaObject);
+        } catch (InvalidException e) {
+            throw new InternalException(e.getMessage());
+        } catch (ProcessingException e) {
+            throw new InternalException(e.getMessage());
         }
+        startPendingReindex();
     }
     
-    private synchronized void deleteFromKnownSchemas(String handle) throws RepositoryException {
-        DigitalObject designObject = this.getDesignDigitalObject();
-        Map<String, String> knownSchemaIds = getKnownSchemaIdsFromDesignObject(designObject);
-        List<String> knownSchemaHandles = new ArrayList<String>(knownSchemaIds.keySet());
-        if (knownSchemaHandles.contains(handle)) {
-            knownSchemaHandles.remove(handle);
-            List<DigitalObject> knownSchemaObjects = objectListFromHandleList(knownSchemaHandles);
-            try {
-                rebuildSchemasFromListOfObjects(knownSchemaObjects);
-            } catch (InvalidException e) {
-                throw new InternalException(e.getMessage());
-            } catch (ProcessingException e) {
-                throw new InternalException(e.getMessage());
-            }
+    private void deleteFromKnownSchemas(String handle) throws RepositoryException {
+        try {
+            removeKnownSchema(handle);
+        } catch (InvalidException e) {
+            throw new InternalException(e.getMessage());
+        } catch (ProcessingException e) {
+            throw new InternalException(e.getMessage());
         }
+        startPendingReindex();
     }
 
     public String getHandleForSuffix(String suffix) {
@@ -1030,22 +1313,26 @@ public class RegistrarService {
     
     public DigitalObject publishVersion(String objectId, String userId) throws RepositoryException, VersionException {
         DigitalObject result = versionManager.publishVersion(objectId, userId);
+        noteWrite();
+        aclEnforcer.updateGroupMembership(result.getHandle(), result.getAttribute("users"));
+        String type = result.getAttribute(TYPE);
+        String createdBy = result.getAttribute(AccessControlList.CREATED_BY_ATTRIBUTE);
+        objectCounters.objectAdded(type, createdBy);
         if (handleClient != null) {
             try {
                 JsonNode dataNode = JsonUtil.parseJson(result.getAttribute(JSON));
-                String type = result.getAttribute(TYPE);
                 
                 handleClient.registerHandle(result.getHandle(), result, type, dataNode);
             } catch (HandleException e) {
                 try {
-                    result.delete();
+                    deleteAndForget(result, type, createdBy);
                 } catch (RepositoryException ex) {
                     logger.error("Failure to delete new object after failure to register handle " + result.getHandle() + ", out of sync", e);
                 }
                 throw new InternalException(e);
             } catch (InvalidException e) {
                 try {
-                    result.delete();
+                    deleteAndForget(result, type, createdBy);
                 } catch (RepositoryException ex) {
                     logger.error("Failure to delete new object after failure to register handle " + result.getHandle() + ", out of sync", e);
                 }
@@ -1068,6 +1355,10 @@ public class RegistrarService {
         atts.put("remote", "true");
         atts.put("remoteRepository", remoteRepository);
         dobj.setAttributes(atts);
+        noteWrite();
+        validator.invalidateHandleType(dobj.getHandle());
+        aclEnforcer.updateGroupMembership(dobj.getHandle(), atts.get("users"));
+        objectCounters.markStale();
         if ("Schema".equals(type)) {
             addToKnownSchemas(dobj.getHandle(), true);
         }
@@ -1122,7 +1413,7 @@ public class RegistrarService {
             sortFields = getSortFieldsFromParam(sortFieldsString);
         }
         
-        QueryParams params = new QueryParams(pageNum, pageSize, sortFields);
+        QueryParams params = getQueryParams(pageNum, pageSize, sortFields, null);
         Query q = new RawQuery("valid:true AND (" + query + ")");
         int totalMatches = -1;
         List<ContentPlusMeta> resultsList = new ArrayList<ContentPlusMeta>();
@@ -1132,7 +1423,7 @@ public class RegistrarService {
                 totalMatches = ((QueryResults<DigitalObject>)results).size();
             }
             while (results.hasNext()) {
-                DigitalObject dobj = results.next();
+                DigitalObject dobj = withPayloads(results.next(), null);
                 ContentPlusMeta d = createContentPlusMeta(dobj);
                 resultsList.add(d);
             }
@@ -1145,31 +1436,193 @@ public class RegistrarService {
         return searchResults;
     }
     
-    public void search(String query, int pageNum, int pageSize, String sortFieldsString, PrintWriter printWriter) throws RepositoryException, IOException {
-        Gson gson = GsonUtility.getPrettyGson();
-        
+    /**
+     * Streams a page of results to printWriter.  The stored JSON of each result is copied into the output as is.
+     * Once the time budget of the limits is spent, the results written so far are followed by "timedOut": true.
+     * A cursor page has "nextCursor" in place of "pageNum", null after the last page, and "size" counts the
+     * matches from the cursor onwards; if cut short, its nextCursor follows the last result written.
+     */
+    public void search(String query, SearchOptions options, PrintWriter printWriter) throws RepositoryException, IOException, InvalidException {
+        long deadline = options.limits.deadline();
+        if (!searchResultCache.isCacheable(query, options.pageSize)) {
+            writePage(query, options, printWriter, deadline);
+            return;
+        }
+        String cacheKey = SearchResultCache.key(options.cursor == null ? "page" : "cursor", query, options.cursor == null ? Integer.valueOf(options.pageNum) : options.cursor, options.pageSize, options.sortFields, options.compact, options.filter, options.facets == null ? null : options.facets.getFields());
+        long generation = indexGenerations.getIndexedGeneration();
+        String output = searchResultCache.get(cacheKey, generation);
+        if (output == null) {
+            StringWriter stringWriter = new StringWriter();
+            boolean timedOut = writePage(query, options, new PrintWriter(stringWriter), deadline);
+            output = stringWriter.toString();
+            if (!timedOut) searchResultCache.put(cacheKey, generation, output);
+        }
+        printWriter.write(output);
+        printWriter.flush();
+    }
+    
+    private boolean writePage(String query, SearchOptions options, PrintWriter printWriter, long deadline) throws RepositoryException, IOException, InvalidException {
+        if (options.cursor == null) return writeSearchPage(query, options, printWriter, deadline);
+        else return writeCursorPage(query, options, printWriter, deadline);
+    }
+    
+    private boolean writeSearchPage(String query, SearchOptions options, PrintWriter printWriter, long deadline) throws RepositoryException, IOException {
+        int pageNum = options.pageNum;
+        int pageSize = options.pageSize;
+        List<String> filter = options.filter;
+        FacetCounter facets = options.facets;
+        boolean timedOut = facets != null && !countFacets(query, facets, deadline);
         List<SortField> sortFields = null;
-        if (sortFieldsString != null) {
-            sortFields = getSortFieldsFromParam(sortFieldsString);
+        if (options.sortFields != null) {
+            sortFields = getSortFieldsFromParam(options.sortFields);
         }
-        QueryParams params = new QueryParams(pageNum, pageSize, sortFields);
+        QueryParams params = getQueryParams(pageNum, pageSize, sortFields, filter);
         Query q = new RawQuery("valid:true AND (" + query + ")");
         QueryResults<DigitalObject> results = (QueryResults<DigitalObject>) repo.search(q, params);
         
-        JsonWriter writer = new JsonWriter(printWriter);
-        writer.setIndent("  ");
-        writer.beginObject();
-        writer.name("pageNum").value(pageNum);
-        writer.name("pageSize").value(pageSize);
-        writer.name("size").value(results.size());
-        writer.name("results").beginArray();
-        while (results.hasNext()) {
-            DigitalObject dobj = results.next();
-            ContentPlusMeta d = createContentPlusMeta(dobj);
-            gson.toJson(d, ContentPlusMeta.class, writer);
-        }
-        writer.endArray();
-        writer.endObject();
+        JsonGenerator generator = ContentPlusMetaWriter.createGenerator(printWriter, options.compact);
+        try {
+            generator.writeStartObject();
+            generator.writeNumberField("pageNum", pageNum);
+            generator.writeNumberField("pageSize", pageSize);
+            generator.writeNumberField("size", results.size());
+            generator.writeArrayFieldStart("results");
+            while (results.hasNext()) {
+                if (System.currentTimeMillis() > deadline) {
+                    timedOut = true;
+                    break;
+                }
+                DigitalObject dobj = withPayloads(results.next(), filter);
+                ContentPlusMetaWriter.write(generator, dobj, false, filter);
+            }
+            generator.writeEndArray();
+            if (facets != null) {
+                generator.writeFieldName("facets");
+                facets.write(generator);
+            }
+            if (timedOut) generator.writeBooleanField("timedOut", true);
+            generator.writeEndObject();
+            generator.flush();
+        } finally {
+            results.close();
+        }
+        return timedOut;
+    }
+    
+    private boolean writeCursorPage(String query, SearchOptions options, PrintWriter printWriter, long deadline) throws RepositoryException, IOException, InvalidException {
+        String cursorToken = options.cursor;
+        int pageSize = options.pageSize;
+        List<String> filter = options.filter;
+        boolean timedOut = options.facets != null && !countFacets(query, options.facets, deadline);
+        IndexFieldTypes fieldTypes = indexFieldTypes;
+        List<SortField> sortFields = SearchCursor.withTiebreaker(getSortFieldsFromParam(options.sortFields), fieldTypes, schemas.values());
+        if (!SearchCursor.isStart(cursorToken)) {
+            SearchCursor cursor = SearchCursor.decode(cursorToken, sortFields);
+            query = "(" + query + ") AND (" + cursor.toQuery(sortFields) + ")";
+        }
+        QueryParams params = getQueryParams(0, pageSize, sortFields, filter);
+        Query q = new RawQuery("valid:true AND (" + query + ")");
+        QueryResults<DigitalObject> results = (QueryResults<DigitalObject>) repo.search(q, params);
+        
+        JsonGenerator generator = ContentPlusMetaWriter.createGenerator(printWriter, options.compact);
+        try {
+            generator.writeStartObject();
+            generator.writeNumberField("pageSize", pageSize);
+            generator.writeNumberField("size", results.size());
+            generator.writeArrayFieldStart("results");
+            DigitalObject last = null;
+            int count = 0;
+            boolean cutShort = false;
+            while (results.hasNext()) {
+                if (System.currentTimeMillis() > deadline) {
+                    timedOut = true;
+                    cutShort = true;
+                    break;
+                }
+                last = results.next();
+                count++;
+                ContentPlusMetaWriter.write(generator, withPayloads(last, filter), false, filter);
+            }
+            generator.writeEndArray();
+            boolean isFullPage = pageSize > 0 && count == pageSize;
+            if ((isFullPage || cutShort) && last != null && results.size() > count) {
+                generator.writeStringField("nextCursor", SearchCursor.after(last, sortFields, fieldTypes).encode());
+            } else if (cutShort && last == null) {
+                generator.writeStringField("nextCursor", cursorToken);
+            } else {
+                generator.writeNullField("nextCursor");
+            }
+            if (timedOut) generator.writeBooleanField("timedOut", true);
+            generator.writeEndObject();
+            generator.flush();
+        } finally {
+            results.close();
+        }
+        return timedOut;
+    }
+    
+    /**
+     * Writes every result of the query to printWriter as newline-delimited JSON, one object per line, without
+     * holding more than one result in memory.  Stops early if the client goes away; returns the number written.
+     */
+    public int exportNdjson(String query, String sortFieldsString, PrintWriter printWriter, List<String> filter) throws RepositoryException, IOException {
+        List<SortField> sortFields = getSortFieldsFromParam(sortFieldsString);
+        QueryParams params = getQueryParams(0, 0, sortFields, filter);
+        Query q = new RawQuery("valid:true AND (" + query + ")");
+        CloseableIterator<DigitalObject> results = repo.search(q, params);
+        JsonGenerator generator = ContentPlusMetaWriter.createGenerator(printWriter, true);
+        generator.setRootValueSeparator(null);
+        int count = 0;
+        try {
+            while (results.hasNext()) {
+                DigitalObject dobj = withPayloads(results.next(), filter);
+                ContentPlusMetaWriter.write(generator, dobj, true, filter);
+                generator.writeRaw('\n');
+                count++;
+                if (count % NDJSON_FLUSH_INTERVAL == 0) generator.flush();
+                if (count % NDJSON_FLUSH_INTERVAL == 0 && printWriter.checkError()) {
+                    logger.info("NDJSON export stopped after " + count + " results; client disconnected");
+                    break;
+                }
+            }
+            printWriter.flush();
+        } catch (UncheckedRepositoryException e) {
+            throw e.getCause();
+        } finally {
+            results.close();
+        }
+        return count;
+    }
+    
+    /**
+     * Results need only the handle, the attributes written by ContentPlusMetaWriter and, without a filter, the
+     * payload manifest, so the stored copies of every JSON value and payload attribute are not sent back with each hit.
+     */
+    private static QueryParams getQueryParams(int pageNum, int pageSize, List<SortField> sortFields, List<String> filter) {
+        List<String> returnedFields = new ArrayList<String>(filter == null ? RESULT_FIELDS : FILTERED_RESULT_FIELDS);
+        if (sortFields != null) {
+            for (SortField sortField : sortFields) {
+                if (sortField.getName().startsWith("objatt_")) returnedFields.add(sortField.getName());
+            }
+        }
+        return new QueryParams(pageNum, pageSize, sortFields, returnedFields);
+    }
+    
+    private static List<String> withPayloadManifest(List<String> fields) {
+        List<String> result = new ArrayList<String>(fields);
+        result.add(PayloadManifest.FIELD);
+        return Collections.unmodifiableList(result);
+    }
+    
+    /**
+     * Returns a search result read back from storage if it was indexed without a payload manifest, as its payloads
+     * are not among the returned fields; reindexing makes this unnecessary.
+     */
+    private DigitalObject withPayloads(DigitalObject dobj, List<String> filter) throws RepositoryException {
+        if (filter != null || dobj.getAttribute(PayloadManifest.ATTRIBUTE) != null) return dobj;
+        DigitalObject stored = repo.getDigitalObject(dobj.getHandle());
+        if (stored == null) return dobj;
+        return stored;
     }
     
     public static ContentPlusMeta createContentPlusMeta(DigitalObject dobj) throws RepositoryException {
@@ -1182,17 +1635,9 @@ public class RegistrarService {
         result.content = content;
         result.metadata = getMetadataForObject(dobj);
         
-        List<DataElement> elements = dobj.getDataElements();
-        if (elements.size() > 0) {
-            result.payloads = new ArrayList<ContentPlusMeta.PayloadMetadata>();
-            for (DataElement el : elements) {
-                ContentPlusMeta.PayloadMetadata payloadMetadata = new ContentPlusMeta.PayloadMetadata();
-                payloadMetadata.name = el.getName();
-                payloadMetadata.filename = el.getAttribute("filename");
-                payloadMetadata.mediaType = el.getAttribute("mimetype");
-                payloadMetadata.size = el.getSize();
-                result.payloads.add(payloadMetadata);
-            }
+        List<ContentPlusMeta.PayloadMetadata> payloads = PayloadManifest.getPayloads(dobj);
+        if (payloads.size() > 0) {
+            result.payloads = payloads;
         }
         return result;
     }
@@ -1245,6 +1690,28 @@ public class RegistrarService {
     }
     
     public Map<String, JsonNode> getPointerToSchemaMap(String objectType, String remoteRepository, JsonNode jsonNode) throws InvalidException {
+        SchemaAndNode schema = getSchemaForPointerToSchemaMap(objectType, remoteRepository);
+        Map<String, JsonNode> keywordsMap = validator.schemaValidateAndReturnKeywordsMap(jsonNode, schema);
+        return keywordsMap;
+    }
+
+    /**
+     * As {@link #getPointerToSchemaMap(String, String, JsonNode)} for the stored JSON of dobj, memoized by object
+     * id and modification time.  The returned map is unmodifiable.
+     */
+    public Map<String, JsonNode> getPointerToSchemaMap(DigitalObject dobj, String objectType, String remoteRepository, JsonNode jsonNode) throws InvalidException, RepositoryException {
+        SchemaAndNode schema = getSchemaForPointerToSchemaMap(objectType, remoteRepository);
+        String objectId = dobj.getHandle();
+        String modified = dobj.getAttribute("internal.modified");
+        Map<String, JsonNode> keywordsMap = pointerToSchemaMapCache.get(objectId, modified, schema);
+        if (keywordsMap == null) {
+            keywordsMap = validator.schemaValidateAndReturnKeywordsMap(jsonNode, schema);
+            keywordsMap = pointerToSchemaMapCache.put(objectId, modified, schema, keywordsMap);
+        }
+        return keywordsMap;
+    }
+
+    private SchemaAndNode getSchemaForPointerToSchemaMap(String objectType, String remoteRepository) throws InvalidException {
         SchemaAndNode schema;
         if ("Schema".equals(objectType)) {
             schema = schemas.get(new TypeAndRegistrar("Schema", null));
@@ -1254,8 +1721,7 @@ public class RegistrarService {
         if (schema == null) {
             throw new InvalidException("Unknown type " + objectType);
         }
-        Map<String, JsonNode> keywordsMap = validator.schemaValidateAndReturnKeywordsMap(jsonNode, schema.schemaNode, schema.schema);
-        return keywordsMap;
+        return schema;
     }
 
     void validateForTesting(String objectType, String remoteRepository, String jsonData) throws InvalidException, RepositoryException {
@@ -1264,6 +1730,22 @@ public class RegistrarService {
         validator.postSchemaValidate(jsonNode, keywordsMap);
     }
     
+    /**
+     * Validates each {"type":..., "content":...} line of in, writing one result line per record to out.
+     * Nothing is stored.
+     */
+    public void validateInBulk(Reader in, Writer out) throws IOException, RepositoryException {
+        getBulkValidator().validate(in, out);
+    }
+    
+    private synchronized BulkValidator getBulkValidator() {
+        if (bulkValidator == null) {
+            int parallelism = Integer.getInteger("dtr.bulkValidation.parallelism", Runtime.getRuntime().availableProcessors());
+            bulkValidator = new BulkValidator(this, validator, parallelism);
+        }
+        return bulkValidator;
+    }
+    
     static String getPrimaryData(JsonNode jsonNode, Map<String, JsonNode> pointerToSchemaMap) {
         for (Map.Entry<String, JsonNode> entry : pointerToSchemaMap.entrySet()) {
             String jsonPointer = entry.getKey();
@@ -1284,6 +1766,15 @@ public class RegistrarService {
 
     public String getMediaType(String type, String remoteRepository, JsonNode jsonNode, String jsonPointer) throws InvalidException {
         Map<String, JsonNode> pointerToSchemaMap = getPointerToSchemaMap(type, remoteRepository, jsonNode);
+        return getMediaType(pointerToSchemaMap, jsonPointer);
+    }
+
+    public String getMediaType(DigitalObject dobj, String type, String remoteRepository, JsonNode jsonNode, String jsonPointer) throws InvalidException, RepositoryException {
+        Map<String, JsonNode> pointerToSchemaMap = getPointerToSchemaMap(dobj, type, remoteRepository, jsonNode);
+        return getMediaType(pointerToSchemaMap, jsonPointer);
+    }
+
+    private static String getMediaType(Map<String, JsonNode> pointerToSchemaMap, String jsonPointer) {
         JsonNode subSchema = pointerToSchemaMap.get(jsonPointer);
         if (subSchema == null) return null;
         JsonNode mediaType = JsonUtil.getDeepProperty(subSchema, Constants.REPOSITORY_SCHEMA_KEYWORD, "response", "mediaType");
@@ -1291,17 +1782,41 @@ public class RegistrarService {
         return mediaType.asText();
     }
 
+    /**
+     * Adds every valid match of the query to facets, fetching only the fields they count.
+     */
+    public void countFacets(String query, FacetCounter facets) throws RepositoryException {
+        countFacets(query, facets, Long.MAX_VALUE);
+    }
+    
+    /**
+     * Returns false if the deadline passed before every match was counted.  Complete counts are cached until the
+     * next write, so the pages of one search count its matches once.
+     */
+    public boolean countFacets(String query, FacetCounter facets, long deadline) throws RepositoryException {
+        if (!searchResultCache.isCacheable(query)) {
+            return facets.addMatches(repo, new RawQuery("valid:true AND (" + query + ")"), deadline);
+        }
+        String cacheKey = SearchResultCache.key("facets", query, facets.getFields());
+        long generation = indexGenerations.getIndexedGeneration();
+        try {
+            String countsJson = searchResultCache.get(cacheKey, generation);
+            if (countsJson != null) {
+                facets.setCounts(countsJson);
+                return true;
+            }
+            if (!facets.addMatches(repo, new RawQuery("valid:true AND (" + query + ")"), deadline)) return false;
+            searchResultCache.put(cacheKey, generation, facets.getCountsJson());
+            return true;
+        } catch (IOException e) {
+            throw new InternalException(e);
+        }
+    }
+    
     public Map<String, Integer> getTypeCount() throws RepositoryException {
     	Map<String, Integer> result = new HashMap<String, Integer>();
     	for (String type : design.schemas.keySet()) {
-    		Query typeQuery = new RawQuery("type:" + type);
-            QueryResults<String> results = (QueryResults<String>) repo.searchHandles(typeQuery);
-    		try {
-    		    Integer count = results.size();
-    		    result.put(type, count);
-    		} finally {
-    		    results.close();
-    		}
+    	    result.put(type, objectCounters.getTypeCount(type));
     	}
     	return result;
     }
@@ -1309,38 +1824,35 @@ public class RegistrarService {
     public List<UserObjectCount> getCountByUser() throws RepositoryException {
         List<UserObjectCount> result = new ArrayList<UserObjectCount>();
         Query allUsersQuery = new RawQuery("username:[* TO *]");
-        CloseableIterator<DigitalObject> userResults = repo.search(allUsersQuery);
+        QueryParams params = new QueryParams(0, 0, null, Arrays.asList("objectid", "objatt_username"));
+        CloseableIterator<DigitalObject> userResults = repo.search(allUsersQuery, params);
         while (userResults.hasNext()) {
             DigitalObject userObject = userResults.next();
             String userHandle = userObject.getHandle();
             String username = userObject.getAttribute("username");
-            Query createdByQuery = new RawQuery("createdBy:"+userHandle);
-            QueryResults<String> createdByResults = (QueryResults<String>) repo.searchHandles(createdByQuery);
-            int count = createdByResults.size();
             UserObjectCount userObjectCount = new UserObjectCount();
             userObjectCount.username = username;
             userObjectCount.handle = userHandle;
-            userObjectCount.createCount = count;
+            userObjectCount.createCount = objectCounters.getCreatorCount(userHandle);
             result.add(userObjectCount);
-            createdByResults.close();
         }
         userResults.close();
-        Query createdByAdminQuery = new RawQuery("createdBy:admin");
-        QueryResults<String> createdByAdminResults = (QueryResults<String>) repo.searchHandles(createdByAdminQuery);
-        int adminCount = createdByAdminResults.size();
         UserObjectCount userObjectCount = new UserObjectCount();
         userObjectCount.username = "admin";
         userObjectCount.handle = "admin";
-        userObjectCount.createCount = adminCount;
+        userObjectCount.createCount = objectCounters.getCreatorCount("admin");
         
         result.add(userObjectCount);
-        createdByAdminResults.close();
         return result;
     }
     
     public Status getStatus() throws RepositoryException {
     	Status status = new Status();
     	status.typeCount = getTypeCount();
+    	status.caches.put("pointerToSchemaMap", pointerToSchemaMapCache.getStatistics());
+    	status.caches.put("handleType", validator.getHandleTypeCacheStatistics());
+    	status.caches.put("aclRestriction", aclEnforcer.getRestrictionCacheStatistics());
+    	status.caches.put("searchResults", searchResultCache.getStatistics());
     	return status;
     }
 
@@ -1348,10 +1860,26 @@ public class RegistrarService {
         return validator;
     }
 
+    public long getWriteGeneration() {
+        return indexGenerations.getWriteGeneration();
+    }
+    
+    /**
+     * Records a change to the repository made outside of the methods of this class, such as an ACL edit.
+     */
+    public long noteWrite() {
+        return indexGenerations.noteWrite();
+    }
+    
+    /**
+     * Waits for the index as needed by a request presenting the given index generation token, which may be null.
+     */
+    public void awaitIndexed(String token) throws RepositoryException {
+        indexGenerations.awaitIndexed(token);
+    }
+    
     public void ensureIndexUpToDate() throws RepositoryException {
-        if (repo instanceof NetworkedRepository) {
-            ((NetworkedRepository) repo).ensureIndexUpToDate();
-        }
+        indexGenerations.catchUp();
     }
     
     public void setAdminPassword(String password) throws Exception {
@@ -1360,6 +1888,13 @@ public class RegistrarService {
 
     public void shutdown() {
         handlesUpdater.shutdown();
+        jsonStorageMigrator.shutdown();
+        reindexer.shutdown();
+        objectCounters.shutdown();
+        synchronized (this) {
+            if (bulkValidator != null) bulkValidator.shutdown();
+        }
+        schemaCompilePool.shutdown();
         repo.close();
     }
 
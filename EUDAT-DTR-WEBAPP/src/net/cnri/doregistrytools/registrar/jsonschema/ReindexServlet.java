@@ -0,0 +1,60 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.gson.Gson;
+
+/**
+ * POST starts reindexing the objects of the types given by the type parameter (which may be repeated), or of all
+ * objects if there is none; GET returns the progress.
+ */
+@WebServlet({"/reindex/*"})
+public class ReindexServlet extends HttpServlet {
+
+    private RegistrarService registrar;
+    private Gson gson;
+
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        try {
+            gson = new Gson();
+            registrar = RegistrarServiceFactory.getRegistrarService(getServletContext());
+        } catch (Exception e) {
+            throw new ServletException(e);
+        } 
+    }
+    
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        String[] types = request.getParameterValues("type");
+        registrar.reindex(types == null ? null : Arrays.asList(types));
+        Writer w = response.getWriter();
+        w.write("{}");
+        w.flush();
+        w.close();
+    }
+    
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        Reindexer.ReindexStatus status = registrar.getReindexStatus();
+        String json = gson.toJson(status);
+        Writer w = response.getWriter();
+        w.write(json);
+        w.flush();
+        w.close();
+    }   
+
+}
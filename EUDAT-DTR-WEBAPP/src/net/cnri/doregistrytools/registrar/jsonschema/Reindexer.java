@@ -0,0 +1,161 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.cnri.doregistrytools.registrar.auth.QueryRestrictor;
+import net.cnri.repository.Repository;
+import net.cnri.repository.RepositoryException;
+import net.cnri.repository.networked.NetworkedRepository;
+import net.cnri.repository.search.QueryResults;
+import net.cnri.repository.search.RawQuery;
+
+/**
+ * Rebuilds the index documents of the objects of some types, or of all objects, so that a changed
+ * {@link IndexPolicy} or typed fields apply to existing objects.  Objects are read from storage by the DO server;
+ * nothing is written.  Types requested while a run is in progress are reindexed in a further run afterwards.
+ */
+public class Reindexer {
+    static final int NOTE_WRITE_BATCH_SIZE = 1000;
+
+    private Logger logger = LoggerFactory.getLogger(new Object() { }.getClass().getEnclosingClass());
+
+    private volatile boolean inProgress = false;
+    private AtomicInteger progressCount = null;
+    private int totalCount;
+    private AtomicInteger exceptionCount = null;
+    private long startTime = 0L;
+    private volatile boolean shutdown = false;
+    private Set<String> types;
+    private Set<String> pendingTypes = new HashSet<String>();
+    private boolean pendingAll = false;
+
+    public Reindexer() {
+        progressCount = new AtomicInteger();
+        exceptionCount = new AtomicInteger();
+    }
+
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    /**
+     * Starts reindexing the objects of the given types, or all objects if types is null.
+     */
+    public synchronized void reindex(final RegistrarService registrar, final Repository repo, Collection<String> types) {
+        if (types == null) pendingAll = true;
+        else pendingTypes.addAll(types);
+        if (inProgress) {
+            return;
+        }
+        inProgress = true;
+        new Thread() {
+            public void run() {
+                // startPending clears inProgress under the lock once nothing is left, so no request is missed
+                while (startPending()) {
+                    try {
+                        finishReindex(registrar, repo);
+                    } catch (RuntimeException e) {
+                        logger.error("Exception reindexing", e);
+                    }
+                }
+            }
+        }.start();
+    }
+
+    private synchronized boolean startPending() {
+        if (shutdown) {
+            inProgress = false;
+            return false;
+        } else if (pendingAll) {
+            types = null;
+        } else if (!pendingTypes.isEmpty()) {
+            types = new HashSet<String>(pendingTypes);
+        } else {
+            inProgress = false;
+            return false;
+        }
+        pendingAll = false;
+        pendingTypes.clear();
+        startTime = System.currentTimeMillis();
+        exceptionCount.set(0);
+        progressCount.set(0);
+        totalCount = 0;
+        return true;
+    }
+
+    private void finishReindex(RegistrarService registrar, Repository repo) {
+        if (!(repo instanceof NetworkedRepository)) {
+            logger.warn("Reindexing is only supported with a networked repository");
+            return;
+        }
+        NetworkedRepository networkedRepo = (NetworkedRepository) repo;
+        QueryResults<String> iter = null;
+        try {
+            iter = (QueryResults<String>) repo.searchHandles(new RawQuery(getQuery()));
+            totalCount = iter.size();
+            while (iter.hasNext()) {
+                if (shutdown) break;
+                String objectId = iter.next();
+                try {
+                    networkedRepo.reindexObject(objectId);
+                    // one write per batch is enough for searches to wait for the batch to be indexed
+                    if (progressCount.incrementAndGet() % NOTE_WRITE_BATCH_SIZE == 0) registrar.noteWrite();
+                } catch (Exception e) {
+                    logger.error("Exception reindexing " + objectId, e);
+                    exceptionCount.incrementAndGet();
+                }
+            }
+        } catch (RepositoryException e) {
+            logger.error("Error listing objects", e);
+            exceptionCount.incrementAndGet();
+        } finally {
+            if (iter != null) {
+                iter.close();
+            }
+            registrar.noteWrite();
+        }
+        logger.info("Reindex of " + (types == null ? "all objects" : "types " + types) + " finished: " + progressCount.get() + " objects reindexed, " + exceptionCount.get() + " errors");
+    }
+
+    private String getQuery() {
+        if (types == null) return "*:*";
+        StringBuilder sb = new StringBuilder();
+        for (String type : types) {
+            if (sb.length() > 0) sb.append(" OR ");
+            sb.append("type:").append(QueryRestrictor.escape(type));
+        }
+        return sb.toString();
+    }
+
+    public synchronized ReindexStatus getStatus() {
+        ReindexStatus status = new ReindexStatus();
+        status.inProgress = this.inProgress;
+        status.types = this.types;
+        status.total = this.totalCount;
+        status.startTime = this.startTime;
+        status.progress = this.progressCount.get();
+        status.exceptionCount = this.exceptionCount.get();
+        return status;
+    }
+
+    public static class ReindexStatus {
+        public boolean inProgress = false;
+        public Set<String> types;
+        public int total;
+        public int progress;
+        public long startTime;
+        public int exceptionCount;
+    }
+}
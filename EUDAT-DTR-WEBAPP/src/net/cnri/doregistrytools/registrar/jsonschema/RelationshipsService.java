@@ -17,7 +17,6 @@ import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import net.cnri.doregistrytools.registrar.auth.QueryRestrictor;
 import net.cnri.repository.DigitalObject;
 import net.cnri.repository.NoSuchDigitalObjectException;
 import net.cnri.repository.RepositoryException;
@@ -42,7 +41,7 @@ public class RelationshipsService {
         String queryString = "internal.pointsAt:"+objectId;
         List<String> groupIds = registrar.getAclEnforcer().getGroupsForUser(userId);
         boolean excludeVersions = true;
-        queryString = QueryRestrictor.restrict(queryString, userId, groupIds, registrar.getDesign().authConfig, registrar.getRemoteAuthConfigs(), excludeVersions);
+        queryString = registrar.getAclEnforcer().restrictQuery(queryString, userId, groupIds, excludeVersions);
         Query whoPointsAtObject = new RawQuery(queryString);
         
         List<Edge> edges = new ArrayList<Edge>();
@@ -68,7 +67,7 @@ public class RelationshipsService {
                 node.setId(id);
                 nodes.add(node);
                 
-                for (String jsonPointer : getJsonPointersTo(objectId, type, remoteRepository, json)) {
+                for (String jsonPointer : getJsonPointersTo(objectId, dobj, type, remoteRepository, json)) {
                 //for (String jsonPointer : getJsonPointersTo(objectId, remoteRepository, type, json)) {
                     Edge edge = new Edge();
                     edge.setFrom(id);
@@ -132,8 +131,12 @@ public class RelationshipsService {
     }
 
     public List<ObjectPointer> pointedAtIds(String objectId, String objectType, String remoteRepository, JsonNode jsonNode) throws InvalidException {
-        List<ObjectPointer> pointedAtIds = new ArrayList<ObjectPointer>();
         Map<String, JsonNode> pointerToSchemaMap = registrar.getPointerToSchemaMap(objectType, remoteRepository, jsonNode);
+        return pointedAtIds(objectId, jsonNode, pointerToSchemaMap);
+    }
+    
+    private List<ObjectPointer> pointedAtIds(String objectId, JsonNode jsonNode, Map<String, JsonNode> pointerToSchemaMap) {
+        List<ObjectPointer> pointedAtIds = new ArrayList<ObjectPointer>();
         for (Map.Entry<String, JsonNode> entry : pointerToSchemaMap.entrySet()) {
             String jsonPointer = entry.getKey();
             JsonNode subSchema = entry.getValue();
@@ -171,7 +174,8 @@ public class RelationshipsService {
             throw new NoSuchDigitalObjectException(objectId);
         }
         JsonNode jsonNode = JsonUtil.parseJson(json);
-        return pointedAtIds(objectId, objectType, remoteRepository, jsonNode);
+        Map<String, JsonNode> pointerToSchemaMap = registrar.getPointerToSchemaMap(dobj, objectType, remoteRepository, jsonNode);
+        return pointedAtIds(objectId, jsonNode, pointerToSchemaMap);
     }
     
     public class ObjectPointer {
@@ -188,11 +192,11 @@ public class RelationshipsService {
     
     
     // returns all the json pointers in dobj that are handleReferenceName pointing to objectId
-    List<String> getJsonPointersTo(String objectId, String type, String remoteRepository, String json) throws RepositoryException, InvalidException {
+    List<String> getJsonPointersTo(String objectId, DigitalObject dobj, String type, String remoteRepository, String json) throws RepositoryException, InvalidException {
         if (type == null || json == null) return Collections.emptyList();
         JsonNode jsonNode = JsonUtil.parseJson(json);
         List<String> res = new ArrayList<String>();
-        Map<String, JsonNode> pointerToSchemaMap = registrar.getPointerToSchemaMap(type, remoteRepository, jsonNode);
+        Map<String, JsonNode> pointerToSchemaMap = registrar.getPointerToSchemaMap(dobj, type, remoteRepository, jsonNode);
         for (Map.Entry<String, JsonNode> entry : pointerToSchemaMap.entrySet()) {
             String jsonPointer = entry.getKey();
             JsonNode subSchema = entry.getValue();
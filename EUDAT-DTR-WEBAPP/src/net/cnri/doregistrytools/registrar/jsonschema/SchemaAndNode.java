@@ -7,15 +7,47 @@
 
 package net.cnri.doregistrytools.registrar.jsonschema;
 
+import java.util.List;
+
 import com.fasterxml.jackson.databind.JsonNode;
+import com.github.fge.jsonschema.core.exceptions.ProcessingException;
 import com.github.fge.jsonschema.main.JsonSchema;
 
 public class SchemaAndNode {
     public JsonSchema schema;
     public JsonNode schemaNode;
+    // null when keyword locations must be recorded during validation; see KeywordPlan
+    public KeywordPlan keywordPlan;
+    public ProcessorPipeline processorPipeline;
+    public IndexFieldTypes indexFieldTypes;
+    public IndexPolicy indexPolicy;
+    public List<String> labelFields;
 
     public SchemaAndNode(JsonSchema schema, JsonNode schemaNode) {
         this.schema = schema;
         this.schemaNode = schemaNode;
+        this.processorPipeline = ProcessorPipeline.ALL;
+        this.indexFieldTypes = IndexFieldTypes.compile(schemaNode);
+        this.indexPolicy = IndexPolicy.compile(schemaNode);
+        this.labelFields = SuggestIndex.labelFields(schemaNode);
+    }
+
+    public SchemaAndNode(JsonSchema schema, JsonNode schemaNode, KeywordPlan keywordPlan) {
+        this.schema = schema;
+        this.schemaNode = schemaNode;
+        this.keywordPlan = keywordPlan;
+        this.processorPipeline = ProcessorPipeline.forPlan(keywordPlan);
+        this.indexFieldTypes = IndexFieldTypes.compile(schemaNode);
+        this.indexPolicy = IndexPolicy.compile(schemaNode);
+        this.labelFields = SuggestIndex.labelFields(schemaNode);
+    }
+
+    public static SchemaAndNode compile(JsonNode schemaNode) throws ProcessingException {
+        KeywordPlan keywordPlan = KeywordPlan.compile(schemaNode);
+        if (keywordPlan == null) {
+            return new SchemaAndNode(JsonUtil.parseJsonSchema(schemaNode), schemaNode);
+        } else {
+            return new SchemaAndNode(JsonUtil.parseJsonSchemaWithoutRecording(schemaNode), schemaNode, keywordPlan);
+        }
     }
 }
@@ -0,0 +1,69 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Visits the subschemas of a schema with the index field they describe, named as the indexer names fields: by
+ * JSON pointer with "_" for every array index.  Only {@code properties}, {@code items}, {@code allOf} and local
+ * {@code $ref}s are followed, since the fields under other keywords cannot be named statically.
+ */
+abstract class SchemaFieldWalker {
+    private static final int MAX_REF_DEPTH = 8;
+
+    private final JsonNode rootSchema;
+
+    SchemaFieldWalker(JsonNode rootSchema) {
+        this.rootSchema = rootSchema;
+    }
+
+    abstract void visit(JsonNode schema, String field);
+
+    void walk() {
+        walk(rootSchema, "", 0);
+    }
+
+    private void walk(JsonNode schema, String field, int refDepth) {
+        if (schema == null || !schema.isObject()) return;
+        JsonNode ref = schema.get("$ref");
+        if (ref != null && ref.isTextual()) {
+            if (refDepth >= MAX_REF_DEPTH || !ref.asText().startsWith("#")) return;
+            String targetPointer = KeywordPlan.decodeFragment(ref.asText());
+            if (targetPointer == null) return;
+            walk(rootSchema.at(targetPointer), field, refDepth + 1);
+            return;
+        }
+        visit(schema, field);
+        JsonNode properties = schema.get("properties");
+        if (properties != null && properties.isObject()) {
+            Iterator<Map.Entry<String, JsonNode>> iter = properties.fields();
+            while (iter.hasNext()) {
+                Map.Entry<String, JsonNode> entry = iter.next();
+                walk(entry.getValue(), field + "/" + JsonUtil.encodeSegment(entry.getKey()), refDepth);
+            }
+        }
+        JsonNode items = schema.get("items");
+        if (items != null && items.isArray()) {
+            for (JsonNode item : items) {
+                walk(item, field + "/_", refDepth);
+            }
+        } else {
+            walk(items, field + "/_", refDepth);
+        }
+        JsonNode allOf = schema.get("allOf");
+        if (allOf != null && allOf.isArray()) {
+            for (JsonNode branch : allOf) {
+                walk(branch, field, refDepth);
+            }
+        }
+    }
+}
@@ -110,6 +110,7 @@ public class SchemasServlet extends HttpServlet {
             } else {
                 dobj = registrar.writeJsonAndPayloadsIntoDigitalObjectIfValidAsUpdate(objectId, json, payloads, userId, null);
             }
+            ServletUtil.setIndexGenerationHeader(resp, registrar);
             resp.getWriter().println("{\"msg\": \"success\"}");
         } catch (RepositoryException e) {
             ServletErrorUtil.internalServerError(resp);
@@ -132,6 +133,7 @@ public class SchemasServlet extends HttpServlet {
             String id = registrar.idFromType(type);
             if (id != null) {
                 registrar.delete(id);
+                ServletUtil.setIndexGenerationHeader(resp, registrar);
                 resp.getWriter().println("{\"msg\": \"success\"}");
             } else {
                 ServletErrorUtil.badRequest(resp, "Schema " + type + " does not exist.");
@@ -0,0 +1,175 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import net.cnri.doregistrytools.registrar.auth.QueryRestrictor;
+import net.cnri.repository.DigitalObject;
+import net.cnri.repository.RepositoryException;
+import net.cnri.repository.search.SortField;
+
+/**
+ * Position in a sorted result list, for paging by search-after instead of by page number.  The cursor holds the
+ * sort values and handle of the last object of a page; the next page is the first page of the query restricted
+ * to objects sorting after it, so each page costs the same however deep it is, and writes between pages do not
+ * shift the results.  The handle is always the last sort key so that the order is total.
+ */
+public class SearchCursor {
+    public static final String START = "*";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Gson gson = new Gson();
+
+    String sort;
+    List<String> values;
+    String id;
+
+    public static boolean isStart(String token) {
+        return START.equals(token) || token.isEmpty();
+    }
+
+    /**
+     * Returns sortFields followed by the tiebreaker.  A JSON field can only be used with a cursor if its sort field
+     * holds the same kind of value in every object: sortable under the {@link IndexPolicy} of every schema, and
+     * not typed differently by different schemas.
+     */
+    public static List<SortField> withTiebreaker(List<SortField> sortFields, IndexFieldTypes fieldTypes, Collection<SchemaAndNode> schemas) throws InvalidException {
+        List<SortField> result = new ArrayList<SortField>();
+        if (sortFields != null) {
+            for (SortField sortField : sortFields) {
+                if ("id".equals(sortField.getName())) break;
+                checkSupported(sortField.getName(), fieldTypes, schemas);
+                result.add(sortField);
+            }
+        }
+        result.add(new SortField("id", false));
+        return result;
+    }
+
+    private static void checkSupported(String fieldName, IndexFieldTypes fieldTypes, Collection<SchemaAndNode> schemas) throws InvalidException {
+        if ("type".equals(fieldName) || fieldName.startsWith("objatt_")) return;
+        if (!fieldName.startsWith("/") || !JsonUtil.isValidJsonPointer(fieldName) || fieldName.contains("/_/") || fieldName.endsWith("/_")) {
+            throw new InvalidException("Sort field " + fieldName + " cannot be used with a cursor");
+        }
+        if (fieldTypes.getKinds(fieldName).size() > 1) {
+            throw new InvalidException("Sort field " + fieldName + " has different types in different schemas and cannot be used with a cursor");
+        }
+        for (SchemaAndNode schema : schemas) {
+            if (schema.indexPolicy != null && !schema.indexPolicy.getFieldPolicy(fieldName).sortable) {
+                throw new InvalidException("Sort field " + fieldName + " is not sortable for every type and cannot be used with a cursor");
+            }
+        }
+    }
+
+    public static SearchCursor decode(String token, List<SortField> sortFields) throws InvalidException {
+        SearchCursor cursor;
+        try {
+            cursor = gson.fromJson(new String(Base64.decodeBase64(token), UTF_8), SearchCursor.class);
+        } catch (JsonParseException e) {
+            throw new InvalidException("Invalid cursor");
+        }
+        if (cursor == null || cursor.id == null || cursor.values == null) throw new InvalidException("Invalid cursor");
+        if (!describe(sortFields).equals(cursor.sort) || cursor.values.size() != sortFields.size() - 1) {
+            throw new InvalidException("Cursor does not match sortFields");
+        }
+        return cursor;
+    }
+
+    public String encode() {
+        return Base64.encodeBase64URLSafeString(gson.toJson(this).getBytes(UTF_8));
+    }
+
+    /**
+     * Returns the cursor after dobj, which must be the last object of a page sorted by sortFields (including the tiebreaker).
+     * A value which is not of the field's type has no sort value, so is taken as missing.
+     */
+    public static SearchCursor after(DigitalObject dobj, List<SortField> sortFields, IndexFieldTypes fieldTypes) throws RepositoryException, InvalidException {
+        SearchCursor cursor = new SearchCursor();
+        cursor.sort = describe(sortFields);
+        cursor.values = new ArrayList<String>();
+        JsonNode jsonNode = null;
+        for (SortField sortField : sortFields.subList(0, sortFields.size() - 1)) {
+            String fieldName = sortField.getName();
+            String value;
+            if ("type".equals(fieldName)) {
+                value = dobj.getAttribute("type");
+            } else if (fieldName.startsWith("objatt_")) {
+                value = dobj.getAttribute(fieldName.substring("objatt_".length()));
+            } else {
+                if (jsonNode == null) jsonNode = JsonUtil.parseJson(dobj.getAttribute("json"));
+                JsonNode valueNode = JsonUtil.getJsonAtPointer(fieldName, jsonNode);
+                value = valueNode.isValueNode() ? valueNode.asText(null) : null;
+                IndexFieldTypes.Kind kind = fieldTypes.getKind(fieldName);
+                if (value != null && kind != null && IndexFieldTypes.toNumber(kind, valueNode) == null) value = null;
+            }
+            cursor.values.add(value);
+        }
+        cursor.id = dobj.getHandle();
+        return cursor;
+    }
+
+    /**
+     * Returns the query clause matching the objects which sort after this cursor.  Missing values sort first
+     * ascending and last descending, as in a Lucene string sort.
+     */
+    public String toQuery(List<SortField> sortFields) {
+        return after(sortFields, 0);
+    }
+
+    private String after(List<SortField> sortFields, int index) {
+        if (index == values.size()) {
+            return "id:{" + quote(id) + " TO *]";
+        }
+        SortField sortField = sortFields.get(index);
+        String field = QueryRestrictor.escape(sortFieldName(sortField.getName()));
+        String value = values.get(index);
+        String present = field + ":[* TO *]";
+        String missing = "(*:* -" + present + ")";
+        String sameAndAfter;
+        if (value == null) {
+            sameAndAfter = "(" + missing + " AND (" + after(sortFields, index + 1) + "))";
+            if (sortField.isReverse()) return sameAndAfter;
+            return present + " OR " + sameAndAfter;
+        }
+        String quoted = quote(value);
+        sameAndAfter = "(" + field + ":[" + quoted + " TO " + quoted + "] AND (" + after(sortFields, index + 1) + "))";
+        if (sortField.isReverse()) {
+            return field + ":{* TO " + quoted + "} OR " + missing + " OR " + sameAndAfter;
+        } else {
+            return field + ":{" + quoted + " TO *] OR " + sameAndAfter;
+        }
+    }
+
+    private static String sortFieldName(String fieldName) {
+        return "sort_" + fieldName;
+    }
+
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static String describe(List<SortField> sortFields) {
+        StringBuilder sb = new StringBuilder();
+        for (SortField sortField : sortFields) {
+            if (sb.length() > 0) sb.append(",");
+            sb.append(sortField.getName());
+            if (sortField.isReverse()) sb.append(" DESC");
+        }
+        return sb.toString();
+    }
+}
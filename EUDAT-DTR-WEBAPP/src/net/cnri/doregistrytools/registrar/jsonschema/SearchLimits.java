@@ -0,0 +1,157 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermRangeQuery;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.util.Version;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.cnri.doregistrytools.registrar.indexer.ExpansionCheck;
+import net.cnri.repository.CloseableIterator;
+import net.cnri.repository.Repository;
+import net.cnri.repository.RepositoryException;
+import net.cnri.repository.UncheckedRepositoryException;
+import net.cnri.repository.search.RawQuery;
+
+/**
+ * Cost limits for searches, by class of user: "anonymous", "authenticated" and "admin".  For each class,
+ * dtr.search.&lt;class&gt;.timeBudgetMillis bounds the time spent collecting facets and writing results, after
+ * which the results so far are returned flagged as timed out, and dtr.search.&lt;class&gt;.minWildcardPrefix is
+ * the number of literal characters required before a wildcard.  When that is more than 0, range queries on the
+ * default field are refused too.  dtr.search.&lt;class&gt;.maxExpandedTerms (default dtr.search.maxExpandedTerms,
+ * or 1024, and none for admin) refuses a wildcard, prefix or range which would match more terms than that in the
+ * index, rather than letting the index expand it.  A limit of 0 turns the check off.  Queries the registry makes
+ * itself are not checked.
+ */
+public class SearchLimits {
+    private static Logger logger = LoggerFactory.getLogger(SearchLimits.class);
+    public static final SearchLimits UNLIMITED = new SearchLimits(0, 0, 0);
+
+    private static final String DEFAULT_FIELD = "internal.all";
+    private static final int DEFAULT_MAX_EXPANDED_TERMS = Integer.getInteger("dtr.search.maxExpandedTerms", 1024).intValue();
+
+    public final long timeBudgetMillis;
+    public final int minWildcardPrefix;
+    public final int maxExpandedTerms;
+
+    public SearchLimits(long timeBudgetMillis, int minWildcardPrefix, int maxExpandedTerms) {
+        this.timeBudgetMillis = timeBudgetMillis;
+        this.minWildcardPrefix = minWildcardPrefix;
+        this.maxExpandedTerms = maxExpandedTerms;
+    }
+
+    public static SearchLimits forUser(String userId) {
+        if (userId == null) return forClass("anonymous", 10000, 2, DEFAULT_MAX_EXPANDED_TERMS);
+        if ("admin".equals(userId)) return forClass("admin", 0, 0, 0);
+        return forClass("authenticated", 30000, 1, DEFAULT_MAX_EXPANDED_TERMS);
+    }
+
+    private static SearchLimits forClass(String userClass, long defaultTimeBudgetMillis, int defaultMinWildcardPrefix, int defaultMaxExpandedTerms) {
+        long timeBudgetMillis = Long.getLong("dtr.search." + userClass + ".timeBudgetMillis", defaultTimeBudgetMillis).longValue();
+        int minWildcardPrefix = Integer.getInteger("dtr.search." + userClass + ".minWildcardPrefix", defaultMinWildcardPrefix).intValue();
+        int maxExpandedTerms = Integer.getInteger("dtr.search." + userClass + ".maxExpandedTerms", defaultMaxExpandedTerms).intValue();
+        return new SearchLimits(timeBudgetMillis, minWildcardPrefix, maxExpandedTerms);
+    }
+
+    /**
+     * Returns the time after which a search should stop, or Long.MAX_VALUE.
+     */
+    public long deadline() {
+        if (timeBudgetMillis <= 0) return Long.MAX_VALUE;
+        return System.currentTimeMillis() + timeBudgetMillis;
+    }
+
+    /**
+     * Throws InvalidException if the query has a pattern too costly for this class of user.  Queries which do
+     * not parse are let through for the index to report.  Term expansion is counted by the index of repo, with
+     * the analyzers it searches with; an open range such as field:[* TO *] counts every term of the field.
+     */
+    public void checkQuery(String query, Repository repo) throws InvalidException {
+        checkPatterns(query);
+        if (maxExpandedTerms > 0) checkExpansion(query, repo);
+    }
+
+    private void checkPatterns(String query) throws InvalidException {
+        if (minWildcardPrefix <= 0) return;
+        QueryParser parser = new QueryParser(Version.LUCENE_47, DEFAULT_FIELD, new KeywordAnalyzer());
+        parser.setAllowLeadingWildcard(true);
+        Query parsed;
+        try {
+            parsed = parser.parse(escapeSlashes(query));
+        } catch (ParseException e) {
+            return;
+        } catch (RuntimeException e) {
+            return;
+        }
+        check(parsed);
+    }
+
+    private void check(Query query) throws InvalidException {
+        if (query instanceof BooleanQuery) {
+            for (BooleanClause clause : ((BooleanQuery) query).getClauses()) {
+                check(clause.getQuery());
+            }
+        } else if (query instanceof WildcardQuery) {
+            String text = ((WildcardQuery) query).getTerm().text();
+            if ("*".equals(text) && !DEFAULT_FIELD.equals(((WildcardQuery) query).getField())) return;
+            int prefixLength = 0;
+            while (prefixLength < text.length() && text.charAt(prefixLength) != '*' && text.charAt(prefixLength) != '?') prefixLength++;
+            if (prefixLength < minWildcardPrefix) throw new InvalidException("Wildcard needs at least " + minWildcardPrefix + " leading characters: " + text);
+        } else if (query instanceof PrefixQuery) {
+            String text = ((PrefixQuery) query).getPrefix().text();
+            if (text.length() < minWildcardPrefix) throw new InvalidException("Wildcard needs at least " + minWildcardPrefix + " leading characters: " + text + "*");
+        } else if (query instanceof TermRangeQuery) {
+            if (DEFAULT_FIELD.equals(((TermRangeQuery) query).getField())) throw new InvalidException("Range queries need a field");
+        }
+    }
+
+    // the probe matches nothing, so reading its first result waits only for the index to count
+    private void checkExpansion(String query, Repository repo) throws InvalidException {
+        ExpansionCheck check = ExpansionCheck.start(maxExpandedTerms);
+        try {
+            CloseableIterator<String> results = repo.searchHandles(new RawQuery(check.wrap(query)));
+            try {
+                results.hasNext();
+            } finally {
+                results.close();
+            }
+        } catch (RepositoryException e) {
+            logger.debug("Expansion check failed for " + query, e);
+            return;
+        } catch (UncheckedRepositoryException e) {
+            logger.debug("Expansion check failed for " + query, e);
+            return;
+        } finally {
+            check.finish();
+        }
+        String exceeded = check.getExceeded();
+        if (exceeded != null) throw new InvalidException("Query matches more than " + maxExpandedTerms + " terms: " + exceeded);
+    }
+
+    // as the index does before parsing, so that paths are not taken for regular expressions
+    private static String escapeSlashes(String query) {
+        StringBuilder sb = new StringBuilder(query.length());
+        boolean escaped = false;
+        for (int i = 0; i < query.length(); i++) {
+            char ch = query.charAt(i);
+            if (ch == '/' && !escaped) sb.append('\\');
+            sb.append(ch);
+            escaped = ch == '\\' && !escaped;
+        }
+        return sb.toString();
+    }
+}
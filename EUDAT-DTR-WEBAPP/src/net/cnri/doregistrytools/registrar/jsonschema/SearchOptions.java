@@ -0,0 +1,39 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.util.List;
+
+/**
+ * How {@link RegistrarService#search(String, SearchOptions, java.io.PrintWriter)} writes a page of results.
+ * Unset fields keep their defaults: the first page of all results, sorted by relevance, indented, unfiltered,
+ * with no facets and no time budget.
+ */
+public class SearchOptions {
+    public int pageNum;
+    public int pageSize;
+    public String sortFields;
+    /** If not null, pages by cursor instead of pageNum; {@link SearchCursor#START} for the first page. */
+    public String cursor;
+    /** If true, the surrounding structure is written without indentation. */
+    public boolean compact;
+    /** If not null, the content of each result is projected to the listed JSON pointers. */
+    public List<String> filter;
+    /** If not null, counts all the matches of the query and is written as "facets" after the results. */
+    public FacetCounter facets;
+    public SearchLimits limits = SearchLimits.UNLIMITED;
+
+    public SearchOptions() {
+    }
+
+    public SearchOptions(int pageNum, int pageSize, String sortFields) {
+        this.pageNum = pageNum;
+        this.pageSize = pageSize;
+        this.sortFields = sortFields;
+    }
+}
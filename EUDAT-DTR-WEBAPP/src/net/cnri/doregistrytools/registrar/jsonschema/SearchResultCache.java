@@ -0,0 +1,145 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * Serialized search result pages, keyed by everything that determines the output: the ACL-restricted query,
+ * page or cursor, sort, projection, facets and formatting.  Each entry records the write generation the index
+ * was known to include when the search ran (see {@link IndexGenerations}), and is discarded when looked up once
+ * the index is known to include a later write, so a page is never served to a request which waits for a write
+ * that could change it.  Writes this registry does not see, such as those of other nodes or made directly to the
+ * DO server, do not advance the generation, so entries also expire dtr.searchCache.ttlSeconds (default 60) after
+ * they are written.  Queries relative to NOW are never cached.  Bounded by dtr.searchCache.maxBytes (default 32MB)
+ * of serialized output, least recently used first; only pages of at most dtr.searchCache.maxPageSize results
+ * (default 100) are cached.
+ */
+public class SearchResultCache {
+    public static final long DEFAULT_MAXIMUM_BYTES = 32L * 1024 * 1024;
+    public static final int DEFAULT_MAXIMUM_PAGE_SIZE = 100;
+    public static final long DEFAULT_TTL_SECONDS = 60;
+
+    private final long maximumBytes;
+    private final int maximumPageSize;
+    private final long ttlSeconds;
+    private final Cache<String, Entry> cache;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong staleCount = new AtomicLong();
+
+    public SearchResultCache() {
+        this(Long.getLong("dtr.searchCache.maxBytes", DEFAULT_MAXIMUM_BYTES).longValue(), Integer.getInteger("dtr.searchCache.maxPageSize", DEFAULT_MAXIMUM_PAGE_SIZE).intValue(), Long.getLong("dtr.searchCache.ttlSeconds", DEFAULT_TTL_SECONDS).longValue());
+    }
+
+    public SearchResultCache(long maximumBytes, int maximumPageSize, long ttlSeconds) {
+        this.maximumBytes = maximumBytes;
+        this.maximumPageSize = maximumPageSize;
+        this.ttlSeconds = ttlSeconds;
+        this.cache = CacheBuilder.newBuilder()
+            .maximumWeight(maximumBytes)
+            .expireAfterWrite(Math.max(ttlSeconds, 0), TimeUnit.SECONDS)
+            .weigher(new Weigher<String, Entry>() {
+                @Override
+                public int weigh(String key, Entry entry) {
+                    return entry.bytes();
+                }
+            })
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * Whether a page of the query may be cached.  Not if the query may be relative to NOW, as its results change
+     * with the time and not only with writes.
+     */
+    public boolean isCacheable(String query, int pageSize) {
+        return maximumBytes > 0 && ttlSeconds > 0 && pageSize > 0 && pageSize <= maximumPageSize && !query.contains("NOW");
+    }
+
+    /**
+     * Whether a result of the query other than a page, such as its facet counts, may be cached.
+     */
+    public boolean isCacheable(String query) {
+        return maximumBytes > 0 && ttlSeconds > 0 && !query.contains("NOW");
+    }
+
+    public static String key(Object... parts) {
+        StringBuilder sb = new StringBuilder();
+        for (Object part : parts) {
+            String s = String.valueOf(part);
+            sb.append(s.length()).append(':').append(s);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the cached output for key, or null if there is none at this generation.
+     */
+    public String get(String key, long generation) {
+        Entry entry = cache.getIfPresent(key);
+        if (entry != null && entry.generation != generation) {
+            cache.asMap().remove(key, entry);
+            staleCount.incrementAndGet();
+            entry = null;
+        }
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return entry.output;
+    }
+
+    public void put(String key, long generation, String output) {
+        cache.put(key, new Entry(key, generation, output));
+    }
+
+    public Statistics getStatistics() {
+        long bytes = 0;
+        for (Entry entry : cache.asMap().values()) {
+            bytes += entry.bytes();
+        }
+        return new Statistics(cache.size(), hitCount.get(), missCount.get(), cache.stats().evictionCount(), staleCount.get(), bytes, maximumBytes);
+    }
+
+    public static class Statistics extends CacheStatistics {
+        public long staleCount;
+        public long bytes;
+        public long maximumBytes;
+
+        public Statistics(long size, long hitCount, long missCount, long evictionCount, long staleCount, long bytes, long maximumBytes) {
+            super(size, 0, hitCount, missCount, evictionCount);
+            this.staleCount = staleCount;
+            this.bytes = bytes;
+            this.maximumBytes = maximumBytes;
+        }
+    }
+
+    private static class Entry {
+        final int keyLength;
+        final long generation;
+        final String output;
+
+        Entry(String key, long generation, String output) {
+            this.keyLength = key.length();
+            this.generation = generation;
+            this.output = output;
+        }
+
+        // approximate: two bytes per char plus object headers
+        int bytes() {
+            return 2 * (keyLength + output.length()) + 64;
+        }
+    }
+}
@@ -84,6 +84,19 @@ public class ServletUtil {
         }
     }
 
+    /**
+     * The index generation token presented by the client, as header or parameter, or null.
+     */
+    public static String getIndexGenerationToken(HttpServletRequest req) {
+        String token = req.getHeader(IndexGenerations.HEADER);
+        if (token == null) token = req.getParameter(IndexGenerations.PARAMETER);
+        return token;
+    }
+    
+    public static void setIndexGenerationHeader(HttpServletResponse resp, RegistrarService registrar) {
+        resp.setHeader(IndexGenerations.HEADER, String.valueOf(registrar.getWriteGeneration()));
+    }
+    
     public static boolean getBooleanParameter(HttpServletRequest req, String param) {
         String value = req.getParameter(param);
         if (value == null) return false;
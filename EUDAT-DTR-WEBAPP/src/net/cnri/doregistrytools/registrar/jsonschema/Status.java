@@ -14,4 +14,5 @@ import javax.servlet.annotation.WebServlet;
 
 public class Status {
 	public Map<String, Integer> typeCount = new HashMap<String, Integer>();
+	public Map<String, CacheStatistics> caches = new HashMap<String, CacheStatistics>();
 }
@@ -0,0 +1,342 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import net.cnri.doregistrytools.registrar.auth.AccessControlList;
+import net.cnri.doregistrytools.registrar.auth.AclEnforcer;
+import net.cnri.doregistrytools.registrar.auth.QueryRestrictor;
+import net.cnri.repository.DigitalObject;
+import net.cnri.repository.Repository;
+import net.cnri.repository.RepositoryException;
+import net.cnri.repository.search.QueryParams;
+import net.cnri.repository.search.QueryResults;
+import net.cnri.repository.search.RawQuery;
+
+/**
+ * Type-ahead suggestions of objects by label, for handle-reference pickers.  For each type asked for, the labels
+ * of its objects (the values of its isPrimary fields, else "/name", else the id) are held in memory as a sorted
+ * map from lowercased word to object ids, so that a prefix lookup touches only matching words.  A type is loaded
+ * from the index on its first request; after that {@code JsonSchemaIndexBuilder} keeps it up to date as objects
+ * are indexed, and deletes through {@link RegistrarService} remove entries.  Versions are not suggested.
+ * <p>
+ * Every query word must prefix some word of the label or the id.  At most dtr.suggest.maxScanned candidates
+ * (default 5000) are examined per request, so very short prefixes on large types return the first matches in
+ * word order rather than scanning the whole type.  At most dtr.suggest.maxTypes types (default 32) are held; asking
+ * for another drops the one least recently asked for, which is loaded again if it is asked for later.
+ */
+public class SuggestIndex {
+    static final int MAX_SCANNED = Integer.getInteger("dtr.suggest.maxScanned", 5000).intValue();
+    static final int MAX_TYPES = Integer.getInteger("dtr.suggest.maxTypes", 32).intValue();
+    static final List<String> RETURNED_FIELDS = Collections.unmodifiableList(Arrays.asList("objectid", "objatt_type", "objatt_json", "objatt_remoteRepository",
+            "objatt_" + AccessControlList.ACL_READ, "objatt_" + AccessControlList.ACL_WRITE, "objatt_" + AccessControlList.CREATED_BY_ATTRIBUTE));
+
+    private final RegistrarService registrar;
+    private final Repository repo;
+    // only types which have been asked for
+    private final ConcurrentHashMap<String, TypeIndex> types = new ConcurrentHashMap<String, TypeIndex>();
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    public static class Suggestion {
+        public String id;
+        public String label;
+        public String type;
+
+        Suggestion(Entry entry) {
+            this.id = entry.id;
+            this.label = entry.label;
+            this.type = entry.type;
+        }
+    }
+
+    static class Entry {
+        final String id;
+        final String type;
+        final String remoteRepository;
+        final String label;
+        final Set<String> words;
+        final String aclRead;
+        final String aclWrite;
+        final String createdBy;
+
+        Entry(String id, String type, String remoteRepository, String label, String aclRead, String aclWrite, String createdBy) {
+            this.id = id;
+            this.type = type;
+            this.remoteRepository = remoteRepository;
+            this.label = label;
+            this.aclRead = aclRead;
+            this.aclWrite = aclWrite;
+            this.createdBy = createdBy;
+            this.words = new HashSet<String>(tokenize(label));
+            this.words.add(id.toLowerCase());
+        }
+    }
+
+    static class TypeIndex {
+        final ConcurrentSkipListMap<String, Set<String>> words = new ConcurrentSkipListMap<String, Set<String>>();
+        volatile boolean loaded = false;
+        volatile long lastUsed = System.currentTimeMillis();
+        // deletes seen while loading, which the load must not bring back
+        final Set<String> removedWhileLoading = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    }
+
+    public SuggestIndex(RegistrarService registrar, Repository repo) {
+        this.registrar = registrar;
+        this.repo = repo;
+    }
+
+    /**
+     * The fields whose values label the objects of a schema: those marked isPrimary, else "/name" if the schema
+     * has it, else none.
+     */
+    static List<String> labelFields(JsonNode schemaNode) {
+        final List<String> primaryFields = new ArrayList<String>();
+        final boolean[] hasName = new boolean[1];
+        if (schemaNode == null || !schemaNode.isObject()) return primaryFields;
+        new SchemaFieldWalker(schemaNode) {
+            @Override
+            void visit(JsonNode schema, String field) {
+                JsonNode isPrimary = JsonUtil.getDeepProperty(schema, Constants.REPOSITORY_SCHEMA_KEYWORD, "preview", "isPrimary");
+                if (isPrimary != null && isPrimary.asBoolean() && !primaryFields.contains(field)) primaryFields.add(field);
+                if ("/name".equals(field)) hasName[0] = true;
+            }
+        }.walk();
+        if (primaryFields.isEmpty() && hasName[0]) primaryFields.add("/name");
+        return primaryFields;
+    }
+
+    /**
+     * Called as an object is indexed; ignored unless suggestions for its type have been asked for.
+     */
+    public void objectIndexed(String objectId, String type, String remoteRepository, JsonNode jsonNode, String aclRead, String aclWrite, String createdBy, boolean isVersion) {
+        if (isVersion || type == null) {
+            objectRemoved(objectId);
+            return;
+        }
+        TypeIndex typeIndex = types.get(type);
+        if (typeIndex == null) {
+            objectRemoved(objectId);
+            return;
+        }
+        String label = getLabel(objectId, type, remoteRepository, jsonNode);
+        put(typeIndex, new Entry(objectId, type, remoteRepository, label, aclRead, aclWrite, createdBy), true);
+    }
+
+    public synchronized void objectRemoved(String objectId) {
+        Entry old = entries.remove(objectId);
+        if (old != null) {
+            TypeIndex oldTypeIndex = types.get(old.type);
+            if (oldTypeIndex != null) removeWords(oldTypeIndex, old);
+        }
+        for (TypeIndex typeIndex : types.values()) {
+            if (!typeIndex.loaded) typeIndex.removedWhileLoading.add(objectId);
+        }
+    }
+
+    private synchronized void put(TypeIndex typeIndex, Entry entry, boolean replace) {
+        // the type may have been evicted since the caller looked it up; eviction holds this lock too
+        if (types.get(entry.type) != typeIndex) return;
+        Entry old = entries.get(entry.id);
+        if (old != null && !replace) return;
+        if (!replace && typeIndex.removedWhileLoading.contains(entry.id)) return;
+        if (old != null) {
+            TypeIndex oldTypeIndex = types.get(old.type);
+            if (oldTypeIndex != null) removeWords(oldTypeIndex, old);
+        }
+        entries.put(entry.id, entry);
+        for (String word : entry.words) {
+            Set<String> ids = typeIndex.words.get(word);
+            if (ids == null) {
+                ids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                typeIndex.words.put(word, ids);
+            }
+            ids.add(entry.id);
+        }
+    }
+
+    private static void removeWords(TypeIndex typeIndex, Entry entry) {
+        for (String word : entry.words) {
+            Set<String> ids = typeIndex.words.get(word);
+            if (ids == null) continue;
+            ids.remove(entry.id);
+            if (ids.isEmpty()) typeIndex.words.remove(word);
+        }
+    }
+
+    /**
+     * Returns up to max objects of the given types which the user may read, whose label or id words are prefixed
+     * by the words of the query.
+     */
+    public List<Suggestion> suggest(List<String> objectTypes, String query, int max, String userId) throws RepositoryException {
+        List<Suggestion> result = new ArrayList<Suggestion>();
+        List<String> queryWords = tokenize(query);
+        if (queryWords.isEmpty() || max <= 0) return result;
+        String longestWord = queryWords.get(0);
+        for (String word : queryWords) {
+            if (word.length() > longestWord.length()) longestWord = word;
+        }
+        AclEnforcer aclEnforcer = registrar.getAclEnforcer();
+        List<String> groupIds = aclEnforcer.getGroupsForUser(userId);
+        int scanned = 0;
+        for (String objectType : new LinkedHashSet<String>(objectTypes)) {
+            TypeIndex typeIndex = getLoadedTypeIndex(objectType);
+            Set<String> seen = new HashSet<String>();
+            for (Set<String> ids : typeIndex.words.subMap(longestWord, true, longestWord + Character.MAX_VALUE, false).values()) {
+                for (String id : ids) {
+                    if (!seen.add(id)) continue;
+                    if (++scanned > MAX_SCANNED) return result;
+                    Entry entry = entries.get(id);
+                    if (entry == null || !objectType.equals(entry.type)) continue;
+                    if (!matchesAll(entry, queryWords)) continue;
+                    if (!aclEnforcer.canRead(userId, groupIds, entry.id, entry.type, entry.remoteRepository, entry.aclRead, entry.aclWrite, entry.createdBy)) continue;
+                    result.add(new Suggestion(entry));
+                    if (result.size() >= max) return result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean matchesAll(Entry entry, List<String> queryWords) {
+        for (String queryWord : queryWords) {
+            boolean matched = false;
+            for (String word : entry.words) {
+                if (word.startsWith(queryWord)) {
+                    matched = true;
+                    break;
+                }
+            }
+            if (!matched) return false;
+        }
+        return true;
+    }
+
+    private TypeIndex getLoadedTypeIndex(String objectType) throws RepositoryException {
+        TypeIndex typeIndex = types.get(objectType);
+        if (typeIndex != null) typeIndex.lastUsed = System.currentTimeMillis();
+        if (typeIndex != null && typeIndex.loaded) return typeIndex;
+        if (typeIndex == null) {
+            TypeIndex newTypeIndex = new TypeIndex();
+            typeIndex = types.putIfAbsent(objectType, newTypeIndex);
+            if (typeIndex == null) {
+                typeIndex = newTypeIndex;
+                evictTypes(objectType);
+            }
+        }
+        synchronized (typeIndex) {
+            if (!typeIndex.loaded) {
+                load(objectType, typeIndex);
+                typeIndex.loaded = true;
+                typeIndex.removedWhileLoading.clear();
+            }
+            return typeIndex;
+        }
+    }
+
+    // drops the least recently used loaded types, other than the one just added, while there are too many
+    private synchronized void evictTypes(String addedType) {
+        while (types.size() > MAX_TYPES) {
+            String oldestType = null;
+            long oldestUse = Long.MAX_VALUE;
+            for (Map.Entry<String, TypeIndex> typeEntry : types.entrySet()) {
+                if (typeEntry.getKey().equals(addedType) || !typeEntry.getValue().loaded) continue;
+                if (typeEntry.getValue().lastUsed < oldestUse) {
+                    oldestType = typeEntry.getKey();
+                    oldestUse = typeEntry.getValue().lastUsed;
+                }
+            }
+            if (oldestType == null) return;
+            types.remove(oldestType);
+            Iterator<Entry> iter = entries.values().iterator();
+            while (iter.hasNext()) {
+                if (oldestType.equals(iter.next().type)) iter.remove();
+            }
+        }
+    }
+
+    private void load(String objectType, TypeIndex typeIndex) throws RepositoryException {
+        String query = "valid:true AND type:" + QueryRestrictor.escape(objectType) + " AND NOT objatt_isVersion:true";
+        QueryParams params = new QueryParams(0, 0, null, RETURNED_FIELDS);
+        QueryResults<DigitalObject> results = (QueryResults<DigitalObject>) repo.search(new RawQuery(query), params);
+        try {
+            while (results.hasNext()) {
+                DigitalObject dobj = results.next();
+                String id = dobj.getHandle();
+                String remoteRepository = dobj.getAttribute("remoteRepository");
+                JsonNode jsonNode = null;
+                String json = dobj.getAttribute("json");
+                if (json != null) {
+                    try {
+                        jsonNode = JsonUtil.parseJson(json);
+                    } catch (InvalidException e) {
+                        // labelled by id
+                    }
+                }
+                String label = getLabel(id, objectType, remoteRepository, jsonNode);
+                put(typeIndex, new Entry(id, objectType, remoteRepository, label, dobj.getAttribute(AccessControlList.ACL_READ), dobj.getAttribute(AccessControlList.ACL_WRITE), dobj.getAttribute(AccessControlList.CREATED_BY_ATTRIBUTE)), false);
+            }
+        } finally {
+            results.close();
+        }
+    }
+
+    private String getLabel(String objectId, String type, String remoteRepository, JsonNode jsonNode) {
+        SchemaAndNode schema = registrar.getSchema(type, remoteRepository);
+        if (schema == null || schema.labelFields == null || jsonNode == null) return objectId;
+        StringBuilder sb = new StringBuilder();
+        for (String field : schema.labelFields) {
+            List<String> values = new ArrayList<String>();
+            collectValues(jsonNode, field.isEmpty() ? new String[0] : field.substring(1).split("/"), 0, values);
+            for (String value : values) {
+                if (sb.length() > 0) sb.append(" ");
+                sb.append(value);
+            }
+        }
+        if (sb.length() == 0) return objectId;
+        return sb.toString();
+    }
+
+    // segments of an index field name, where "_" stands for every array element
+    private static void collectValues(JsonNode node, String[] segments, int index, List<String> values) {
+        if (node == null || node.isMissingNode() || node.isNull()) return;
+        if (index == segments.length) {
+            if (node.isValueNode()) values.add(node.asText());
+            return;
+        }
+        String segment = segments[index];
+        if ("_".equals(segment) && node.isArray()) {
+            for (JsonNode child : node) {
+                collectValues(child, segments, index + 1, values);
+            }
+        } else {
+            collectValues(node.get(JsonUtil.decodeSegment(segment)), segments, index + 1, values);
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> result = new ArrayList<String>();
+        if (text == null) return result;
+        for (String word : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) result.add(word);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,98 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import net.cnri.repository.RepositoryException;
+
+/**
+ * GET returns up to n (default 10) objects of the types given by the type parameter (which may be repeated) whose
+ * labels or ids start with the words of q, as {"results":[{"id":..., "label":..., "type":...}]}.  Types must be
+ * known to this registry.  See {@link SuggestIndex}.
+ */
+@WebServlet({"/suggest/*"})
+public class SuggestServlet extends HttpServlet {
+    private static Logger logger = LoggerFactory.getLogger(SuggestServlet.class);
+    private static final int DEFAULT_MAX = 10;
+    private static final int MAX_MAX = 100;
+
+    private RegistrarService registrar;
+    private Gson gson;
+
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        try {
+            gson = new Gson();
+            registrar = RegistrarServiceFactory.getRegistrarService(getServletContext());
+        } catch (Exception e) {
+            throw new ServletException(e);
+        }
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        String[] types = req.getParameterValues("type");
+        if (types == null || types.length == 0) {
+            ServletErrorUtil.badRequest(resp, "Missing type");
+            return;
+        }
+        for (String type : types) {
+            if (!registrar.isKnownType(type, null)) {
+                ServletErrorUtil.badRequest(resp, "Unknown type " + type);
+                return;
+            }
+        }
+        String query = req.getParameter("q");
+        int max = DEFAULT_MAX;
+        String maxString = req.getParameter("n");
+        if (maxString != null) {
+            try {
+                max = Math.min(Integer.parseInt(maxString), MAX_MAX);
+            } catch (NumberFormatException e) {
+                ServletErrorUtil.badRequest(resp, e.getMessage());
+                return;
+            }
+        }
+        HttpSession session = req.getSession(false);
+        String userId = null;
+        if (session != null) {
+            userId = (String) session.getAttribute("userId");
+        }
+        try {
+            List<SuggestIndex.Suggestion> suggestions = registrar.getSuggestIndex().suggest(Arrays.asList(types), query, max, userId);
+            JsonObject result = new JsonObject();
+            result.add("results", gson.toJsonTree(suggestions));
+            Writer w = resp.getWriter();
+            w.write(gson.toJson(result));
+            w.flush();
+            w.close();
+        } catch (RepositoryException e) {
+            logger.error("Exception in GET /suggest", e);
+            ServletErrorUtil.internalServerError(resp);
+        }
+    }
+}
@@ -20,7 +20,11 @@ public class UsersListProcessor {
     public UsersListProcessor() {
     }
     
-    public void process(DigitalObject dobj, JsonNode json, Map<String, JsonNode> pointerToSchemaMap) throws RepositoryException {
+    /**
+     * Returns the "users" attribute written, or null if the schema has no users list.
+     */
+    public String process(DigitalObject dobj, JsonNode json, Map<String, JsonNode> pointerToSchemaMap) throws RepositoryException {
+        String result = null;
         for (Map.Entry<String, JsonNode> entry : pointerToSchemaMap.entrySet()) {
             String jsonPointer = entry.getKey();
             JsonNode subSchema = entry.getValue();
@@ -35,7 +39,9 @@ public class UsersListProcessor {
                 String user = element.asText();
                 attValue.append(user).append("\n");
             }
-            dobj.setAttribute("users", attValue.toString());
+            result = attValue.toString();
+            dobj.setAttribute("users", result);
         }
+        return result;
     }
 }
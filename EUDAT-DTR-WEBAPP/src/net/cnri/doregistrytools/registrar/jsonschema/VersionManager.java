@@ -22,7 +22,6 @@ import net.cnri.repository.DataElement;
 import net.cnri.repository.DigitalObject;
 import net.cnri.repository.Repository;
 import net.cnri.repository.RepositoryException;
-import net.cnri.repository.networked.NetworkedRepository;
 import net.cnri.repository.search.RawQuery;
 
 public class VersionManager {
@@ -74,9 +73,6 @@ public class VersionManager {
             e.printStackTrace();
             throw new VersionException("Could not create new version.");
         }
-        if (repo instanceof NetworkedRepository) {
-            ((NetworkedRepository) repo).ensureIndexUpToDate();
-        }
         return version;
     }
     
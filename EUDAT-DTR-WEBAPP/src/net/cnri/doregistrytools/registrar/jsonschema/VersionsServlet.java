@@ -55,6 +55,7 @@ public class VersionsServlet extends HttpServlet {
             userId = (String) session.getAttribute("userId"); 
         }
         try {
+            registrar.awaitIndexed(ServletUtil.getIndexGenerationToken(req));
             List<DigitalObject> versions = registrar.getVersionsFor(objectId, userId);
             List<VersionInfo> versionInfos = getVersionInfoListFor(versions);
             String json = gson.toJson(versionInfos);
@@ -107,6 +108,7 @@ public class VersionsServlet extends HttpServlet {
         if (objectId != null) {
             try {
                 DigitalObject versionObject = registrar.publishVersion(objectId, userId);
+                ServletUtil.setIndexGenerationHeader(resp, registrar);
                 VersionInfo versionInfo = getVersionInfoFor(versionObject);
                 String json = gson.toJson(versionInfo);
                 PrintWriter w = resp.getWriter();
@@ -0,0 +1,161 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+package net.cnri.doregistrytools.registrar.jsonschema;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.fge.jsonschema.core.report.ProcessingReport;
+import com.github.fge.jsonschema.main.JsonSchema;
+
+public class KeywordPlanTest {
+    private static final String KEYWORD = "\"" + Constants.REPOSITORY_SCHEMA_KEYWORD + "\"";
+
+    private static final String PERSON_SCHEMA = "{"
+        + "\"type\": \"object\","
+        + "\"properties\": {"
+        + "  \"name\": { \"type\": \"string\", " + KEYWORD + ": { \"preview\": { \"isPrimary\": true } } },"
+        + "  \"username\": { \"type\": \"string\", " + KEYWORD + ": { \"auth\": \"username\" } },"
+        + "  \"password\": { \"type\": \"string\", " + KEYWORD + ": { \"auth\": \"password\" } },"
+        + "  \"photo\": { \"type\": \"string\", " + KEYWORD + ": { \"response\": { \"mediaType\": \"image/png\" } } },"
+        + "  \"friends\": { \"type\": \"array\", \"items\": { \"$ref\": \"#/definitions/ref\" } },"
+        + "  \"plain\": { \"type\": \"object\", \"properties\": { \"x\": { \"type\": \"string\" } } }"
+        + "},"
+        + "\"patternProperties\": { \"^tag_\": { \"type\": \"string\", " + KEYWORD + ": { \"preview\": { \"showInPreview\": true } } } },"
+        + "\"definitions\": { \"ref\": { \"type\": \"string\", " + KEYWORD + ": { \"type\": { \"handleReference\": { \"types\": [\"Person\"] } } } } }"
+        + "}";
+
+    private static final String PERSON = "{"
+        + "\"name\": \"Ann\", \"username\": \"ann\", \"password\": \"secret\", \"photo\": \"...\","
+        + "\"friends\": [\"20.5000/1\", \"20.5000/2\"], \"plain\": { \"x\": \"y\" }, \"tag_a\": \"a\", \"other\": 1"
+        + "}";
+
+    @Test
+    public void testKeywordMeanings() throws Exception {
+        KeywordPlan plan = KeywordPlan.compile(JsonUtil.parseJson(PERSON_SCHEMA));
+        assertNotNull(plan);
+        assertEquals(6, plan.getKeywords().size());
+        for (KeywordPlan.Keyword keyword : plan.getKeywords()) {
+            if ("/properties/name".equals(keyword.schemaPointer)) {
+                assertTrue(keyword.isPrimary);
+            } else if ("/properties/username".equals(keyword.schemaPointer)) {
+                assertTrue(keyword.isUsername());
+            } else if ("/properties/password".equals(keyword.schemaPointer)) {
+                assertTrue(keyword.isPassword());
+            } else if ("/properties/photo".equals(keyword.schemaPointer)) {
+                assertEquals("image/png", keyword.mediaType);
+            } else if ("/definitions/ref".equals(keyword.schemaPointer)) {
+                assertNotNull(keyword.handleReference);
+                assertFalse(keyword.isPrimary);
+            } else {
+                assertEquals("/patternProperties/^tag_", keyword.schemaPointer);
+                assertNull(keyword.auth);
+            }
+        }
+    }
+
+    @Test
+    public void testApplyMatchesRecordingValidator() throws Exception {
+        Map<String, JsonNode> pointerToSchemaMap = assertSameAsRecording(PERSON_SCHEMA, PERSON);
+        assertEquals(7, pointerToSchemaMap.size());
+        assertTrue(pointerToSchemaMap.containsKey("/friends/1"));
+        assertTrue(pointerToSchemaMap.containsKey("/tag_a"));
+        assertFalse(pointerToSchemaMap.containsKey("/plain/x"));
+    }
+
+    @Test
+    public void testAbsentPropertiesHaveNoEntries() throws Exception {
+        Map<String, JsonNode> pointerToSchemaMap = assertSameAsRecording(PERSON_SCHEMA, "{ \"name\": \"Ann\" }");
+        assertEquals(1, pointerToSchemaMap.size());
+    }
+
+    @Test
+    public void testUsersListAndAdditionalProperties() throws Exception {
+        String schema = "{ \"type\": \"object\", \"additionalProperties\": { \"type\": \"array\", "
+            + "\"items\": { \"type\": \"string\" }, " + KEYWORD + ": { \"auth\": \"usersList\" } } }";
+        KeywordPlan plan = KeywordPlan.compile(JsonUtil.parseJson(schema));
+        assertNotNull(plan);
+        assertTrue(plan.getKeywords().get(0).isUsersList());
+        assertEquals(2, assertSameAsRecording(schema, "{ \"a\": [\"x\"], \"b\": [] }").size());
+    }
+
+    @Test
+    public void testRecursiveRef() throws Exception {
+        String schema = "{ \"$ref\": \"#/definitions/node\", \"definitions\": { \"node\": { \"type\": \"object\", \"properties\": {"
+            + " \"id\": { \"type\": \"string\", " + KEYWORD + ": { \"preview\": { \"isPrimary\": true } } },"
+            + " \"children\": { \"type\": \"array\", \"items\": { \"$ref\": \"#/definitions/node\" } } } } } }";
+        Map<String, JsonNode> pointerToSchemaMap = assertSameAsRecording(schema, "{ \"id\": \"a\", \"children\": [ { \"id\": \"b\", \"children\": [ { \"id\": \"c\" } ] } ] }");
+        assertTrue(pointerToSchemaMap.containsKey("/children/0/children/0/id"));
+    }
+
+    @Test
+    public void testSchemaWithoutKeywordsIsEmpty() throws Exception {
+        KeywordPlan plan = KeywordPlan.compile(JsonUtil.parseJson("{ \"type\": \"object\", \"properties\": { \"a\": { \"type\": \"string\" } } }"));
+        assertNotNull(plan);
+        assertTrue(plan.isEmpty());
+        assertTrue(plan.apply(JsonUtil.parseJson("{ \"a\": \"b\" }")).isEmpty());
+    }
+
+    @Test
+    public void testKeywordsUnderAllOfAreIgnored() throws Exception {
+        String schema = "{ \"type\": \"object\", \"allOf\": [ { \"properties\": { \"a\": { " + KEYWORD + ": { \"preview\": { \"isPrimary\": true } } } } } ] }";
+        assertTrue(assertSameAsRecording(schema, "{ \"a\": \"b\" }").isEmpty());
+    }
+
+    @Test
+    public void testConditionalKeywordsHaveNoPlan() throws Exception {
+        String keywordSchema = "{ \"type\": \"string\", " + KEYWORD + ": { \"preview\": { \"isPrimary\": true } } }";
+        assertNull(KeywordPlan.compile(JsonUtil.parseJson("{ \"oneOf\": [ " + keywordSchema + ", { \"type\": \"number\" } ] }")));
+        assertNull(KeywordPlan.compile(JsonUtil.parseJson("{ \"anyOf\": [ " + keywordSchema + " ] }")));
+        assertNull(KeywordPlan.compile(JsonUtil.parseJson("{ \"not\": " + keywordSchema + " }")));
+        assertNull(KeywordPlan.compile(JsonUtil.parseJson("{ \"dependencies\": { \"a\": " + keywordSchema + " } }")));
+        assertNull(KeywordPlan.compile(JsonUtil.parseJson("{ \"$ref\": \"http://example.org/schema#\" }")));
+    }
+
+    @Test
+    public void testMixedStaticAndConditionalKeywordsHaveNoPlan() throws Exception {
+        String schema = "{ \"type\": \"object\", \"properties\": {"
+            + " \"a\": { \"type\": \"string\", " + KEYWORD + ": { \"preview\": { \"isPrimary\": true } } },"
+            + " \"b\": { \"anyOf\": [ { \"type\": \"string\", " + KEYWORD + ": { \"auth\": \"username\" } }, { \"type\": \"number\" } ] } } }";
+        assertNull(KeywordPlan.compile(JsonUtil.parseJson(schema)));
+    }
+
+    @Test
+    public void testConditionalsWithoutKeywordsKeepThePlan() throws Exception {
+        String schema = "{ \"type\": \"object\", \"properties\": {"
+            + " \"a\": { \"type\": \"string\", " + KEYWORD + ": { \"preview\": { \"isPrimary\": true } } },"
+            + " \"b\": { \"oneOf\": [ { \"type\": \"string\" }, { \"type\": \"number\" } ] } } }";
+        Map<String, JsonNode> pointerToSchemaMap = assertSameAsRecording(schema, "{ \"a\": \"x\", \"b\": 1 }");
+        assertEquals(1, pointerToSchemaMap.size());
+    }
+
+    private static Map<String, JsonNode> assertSameAsRecording(String schemaJson, String instanceJson) throws Exception {
+        JsonNode schemaNode = JsonUtil.parseJson(schemaJson);
+        JsonNode instance = JsonUtil.parseJson(instanceJson);
+        KeywordPlan plan = KeywordPlan.compile(schemaNode);
+        assertNotNull(plan);
+        JsonSchema schema = JsonSchemaFactoryHolder.getJsonSchemaFactory().getJsonSchema(schemaNode);
+        ProcessingReport report = schema.validate(instance, true);
+        assertTrue(report.toString(), report.isSuccess());
+        Map<String, JsonNode> expected = SchemaExtractor.extract(report, schemaNode);
+        Map<String, JsonNode> actual = plan.apply(instance);
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, JsonNode> entry : expected.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+        }
+        return actual;
+    }
+}
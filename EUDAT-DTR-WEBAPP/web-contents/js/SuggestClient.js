@@ -0,0 +1,28 @@
+/*************************************************************************\
+    Copyright (c) 2015 Corporation for National Research Initiatives;
+                        All rights reserved.
+     The CNRI open source license for this software is available at
+                  http://hdl.handle.net/20.1000/106
+\*************************************************************************/
+
+(function(){
+"use strict";
+
+function suggest(types, text, max, onSuccess, onError) {
+    var url = "suggest/?q=" + encodeURIComponent(text) + "&n=" + max;
+    for (var i = 0; i < types.length; i++) {
+        url = url + "&type=" + encodeURIComponent(types[i]);
+    }
+    $.getJSON(url)
+    .done(function (res, status, xhr) {
+        onSuccess(res, status, xhr);
+    }).fail(function (xhr, status, error) {
+        onError(xhr.responseJSON, status, xhr);
+    });
+}
+
+var SuggestClient = {};
+SuggestClient.suggest = suggest;
+window.SuggestClient = SuggestClient;
+
+})();
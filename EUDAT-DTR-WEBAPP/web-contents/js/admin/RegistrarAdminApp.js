@@ -771,6 +771,8 @@ function RegistrarAdminApp() {
     }
     self.search = search;
     
+    self.suggest = SuggestClient.suggest;
+    
     function searchRemoteRepository(baseUri, query, pageNum, pageSize, sortFields, onSuccess, onError) {
         var url = baseUri + "objects/?query=" + encodeURIComponent(query) + "&pageNum=" + pageNum + "&pageSize=" + pageSize;
         if (sortFields) {
@@ -46,12 +46,28 @@ function HandleRefSearchSelector(textInput, editor) {
         var results = lastResults.results;
         if (results.length === 0) return 'No results.';
         for (var i = 0; i < results.length; i++) {
-            var resultsDiv = ObjectPreviewUtil.elementForSearchResult(results[i], null, remoteRepository);
+            var resultsDiv;
+            if (remoteRepository) {
+                resultsDiv = ObjectPreviewUtil.elementForSearchResult(results[i], null, remoteRepository);
+            } else {
+                resultsDiv = elementForSuggestion(results[i]);
+            }
             div.append(resultsDiv);
         }
         return outerDiv.html();
     }
     
+    function elementForSuggestion(suggestion) {
+        var li = $('<li/>');
+        var link = $('<a class="list-handles-link" style="display:inline-block" target="_blank">').attr('href', 'objects/' + suggestion.id).text(suggestion.label);
+        link.attr('data-handle', suggestion.id);
+        li.append(link);
+        if (suggestion.label !== suggestion.id) {
+            li.append(document.createTextNode(" [Id:\u00A0" + suggestion.id + "]"));
+        }
+        return li;
+    }
+    
     function onShownPopover() {
         textInput.next('.popover').find('a').click(function (e) {
             e.preventDefault();
@@ -143,12 +159,12 @@ function HandleRefSearchSelector(textInput, editor) {
         if (text === "") {
             return;
         }
-        //var query = "type:" + type + " AND internal.all:(" + text + ")";
-        var query = queryForTypes(types) + " AND internal.all:(" + text + ")";
         if (remoteRepository) {
+            //var query = "type:" + type + " AND internal.all:(" + text + ")";
+            var query = queryForTypes(types) + " AND internal.all:(" + text + ")";
             APP.searchRemoteRepository(remoteRepository, query, 0, 10, null, onSuccess, onError);
         } else {
-            APP.search(query, 0, 10, null, onSuccess, onError);
+            APP.suggest(typeof types === 'string' ? [ types ] : types, text, 10, onSuccess, onError);
         }
         
         lastQuery = Date.now();
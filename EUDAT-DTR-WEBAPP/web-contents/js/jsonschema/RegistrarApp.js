@@ -481,6 +481,8 @@ function RegistrarApp() {
     }
     self.search = search;
     
+    self.suggest = SuggestClient.suggest;
+    
     function searchRemoteRepository(baseUri, query, pageNum, pageSize, sortFields, onSuccess, onError) {
         var url = baseUri + "objects/?query=" + encodeURIComponent(query) + "&pageNum=" + pageNum + "&pageSize=" + pageSize;
         if (sortFields) {